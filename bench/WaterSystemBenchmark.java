@@ -0,0 +1,357 @@
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Measures the query and construction paths of WaterSystem over generated systems of
+ * different sizes and layouts, and writes the average time per operation of every
+ * benchmark as JSON.
+ */
+public class WaterSystemBenchmark
+{
+	private static final String[] LAYOUTS = {"random", "overlapping", "stacked"};
+	private static final int QUERIES = 1024;
+	/** Most calls made between two reads of the clock */
+	private static final int MAX_BATCH = 1 << 16;
+
+	/** Results are folded into this field so the measured calls cannot be optimized away */
+	static volatile int sink;
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final long iterationNanos;
+	private final int activeTanksLimit;
+	private final List<String> results = new ArrayList<String>();
+
+	/**
+	 * @param warmupIterations number of timed iterations that are run and thrown away
+	 * @param measurementIterations number of timed iterations that are reported
+	 * @param iterationMillis the least time spent calling an operation in one iteration
+	 * @param activeTanksLimit the largest system activeTanks is measured on, since its result grows with the overlap
+	 */
+	public WaterSystemBenchmark(int warmupIterations, int measurementIterations, long iterationMillis, int activeTanksLimit)
+	{
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+		this.activeTanksLimit = activeTanksLimit;
+	}
+
+	/**
+	 * Runs the suite. Options: -sizes 10,1000,... -out file -warmup n -iterations n -time ms -activeLimit n
+	 *
+	 * @param args command line options
+	 * @throws IOException if the results cannot be written
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		String sizes = "10,1000,100000,1000000";
+		String out = "bench-results.json";
+		int warmup = 3;
+		int iterations = 5;
+		long time = 200;
+		int activeLimit = 10000;
+		for(int i = 0; i + 1 < args.length; i += 2)
+		{
+			if(args[i].equals("-sizes"))
+			{
+				sizes = args[i+1];
+			}
+			else if(args[i].equals("-out"))
+			{
+				out = args[i+1];
+			}
+			else if(args[i].equals("-warmup"))
+			{
+				warmup = Integer.parseInt(args[i+1]);
+			}
+			else if(args[i].equals("-iterations"))
+			{
+				iterations = Integer.parseInt(args[i+1]);
+			}
+			else if(args[i].equals("-time"))
+			{
+				time = Long.parseLong(args[i+1]);
+			}
+			else if(args[i].equals("-activeLimit"))
+			{
+				activeLimit = Integer.parseInt(args[i+1]);
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown option " + args[i]);
+			}
+		}
+		WaterSystemBenchmark benchmark = new WaterSystemBenchmark(warmup, iterations, time, activeLimit);
+		for(String layout : LAYOUTS)
+		{
+			for(String size : sizes.split(","))
+			{
+				benchmark.runAll(layout, Integer.parseInt(size.trim()));
+			}
+		}
+		benchmark.write(out);
+	}
+
+	/**
+	 * Measures every benchmark on one generated system
+	 *
+	 * @param layout how the tanks are placed
+	 * @param size number of tanks
+	 */
+	void runAll(String layout, int size)
+	{
+		final Set<Tank> tanks = generate(layout, size, 293);
+		final Tank[] tankArray = tanks.toArray(new Tank[tanks.size()]);
+		final WaterSystem system = new WaterSystem(tanks);
+		final double[] heights = new double[QUERIES];
+		final double[] volumes = new double[QUERIES];
+		Random random = new Random(17);
+		double bottom = system.tanksByBottom().firstKey();
+		double top = system.tanksByTop().lastKey();
+		double maxVolume = system.volumeCurve().getMaxVolume();
+		for(int i = 0; i < QUERIES; i++)
+		{
+			heights[i] = bottom + random.nextDouble() * (top - bottom);
+			volumes[i] = maxVolume * (0.001 + 0.998 * random.nextDouble());
+		}
+
+		measure("construct", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return new WaterSystem(tanks).volumeCurve().size();
+			}
+		});
+		measure("heightToVolume", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return system.heightToVolume(heights[i % QUERIES]).hashCode();
+			}
+		});
+		measure("volumeToTankLevel", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return system.volumeToTankLevel(volumes[i % QUERIES]).size();
+			}
+		});
+		if(size <= activeTanksLimit)
+		{
+			measure("activeTanks", layout, size, new Operation()
+			{
+				@Override
+				int run(int i)
+				{
+					return system.activeTanks().size();
+				}
+			});
+		}
+		measure("activeBaseArea", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return system.activeBaseArea().size();
+			}
+		});
+		measure("tanksByBottom", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return system.tanksByBottom().size();
+			}
+		});
+		measure("tanksByTop", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return system.tanksByTop().size();
+			}
+		});
+		//The system keeps its indexes once built, so the build is measured on the store itself
+		final TankStore store = system.tankStore();
+		measure("bottomIndex", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return BreakPointIndex.grouped(store, store.bottomColumn(), store.rowsByBottom()).size();
+			}
+		});
+		measure("topIndex", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return BreakPointIndex.grouped(store, store.topColumn(), store.rowsByTop()).size();
+			}
+		});
+		measure("tankHashCode", layout, size, new Operation()
+		{
+			@Override
+			int run(int i)
+			{
+				return tankArray[i % tankArray.length].hashCode();
+			}
+		});
+	}
+
+	/**
+	 * Creates a system of tanks with a fixed seed so that runs can be compared
+	 *
+	 * @param layout "random" for tanks spread over a tall range, "overlapping" for tanks
+	 * crowded into a short range, or "stacked" for a tower of tanks each sitting on the last
+	 * @param size number of tanks
+	 * @param seed seed of the random placement
+	 * @return the tanks
+	 */
+	static Set<Tank> generate(String layout, int size, long seed)
+	{
+		Random random = new Random(seed);
+		Set<Tank> tanks = new HashSet<Tank>();
+		for(int i = 0; i < size; i++)
+		{
+			double x = random.nextDouble() * 1000;
+			double y = random.nextDouble() * 1000;
+			double z;
+			double height;
+			if(layout.equals("random"))
+			{
+				z = random.nextDouble() * 1000;
+				height = 1 + random.nextDouble() * 49;
+			}
+			else if(layout.equals("overlapping"))
+			{
+				z = random.nextDouble() * 10;
+				height = 5 + random.nextDouble() * 10;
+			}
+			else if(layout.equals("stacked"))
+			{
+				z = i;
+				height = 1;
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown layout " + layout);
+			}
+			double[] bL = {x, y, z};
+			double[] tR = {x + 0.5 + random.nextDouble() * 10, y + 0.5 + random.nextDouble() * 10, z + height};
+			Tank t = new Tank();
+			t.setCoordinates(bL, tR);
+			tanks.add(t);
+		}
+		return tanks;
+	}
+
+	/**
+	 * Calls an operation in a loop for the warmup iterations, then for the measured iterations,
+	 * and records the mean and standard deviation of the time per call
+	 *
+	 * @param name name of the benchmark
+	 * @param layout layout of the system
+	 * @param size number of tanks in the system
+	 * @param operation the call to measure
+	 */
+	private void measure(String name, String layout, int size, Operation operation)
+	{
+		for(int i = 0; i < warmupIterations; i++)
+		{
+			iteration(operation);
+		}
+		double[] scores = new double[measurementIterations];
+		double mean = 0.0;
+		for(int i = 0; i < measurementIterations; i++)
+		{
+			scores[i] = iteration(operation);
+			mean += scores[i];
+		}
+		mean /= measurementIterations;
+		double variance = 0.0;
+		for(double score : scores)
+		{
+			variance += (score - mean) * (score - mean);
+		}
+		double error = (measurementIterations > 1 ? Math.sqrt(variance / (measurementIterations - 1)) : 0.0);
+		results.add(String.format(Locale.ROOT,
+				"{\"benchmark\": \"%s\", \"layout\": \"%s\", \"tanks\": %d, \"mode\": \"avgt\", \"unit\": \"ns/op\", \"score\": %.3f, \"error\": %.3f, \"iterations\": %d}",
+				name, layout, size, mean, error, measurementIterations));
+		System.out.println(String.format(Locale.ROOT, "%-18s %-12s %9d %18.3f ns/op +- %.3f", name, layout, size, mean, error));
+	}
+
+	/**
+	 * Calls an operation in batches until the iteration time has passed. The clock is read
+	 * once per batch and each batch is twice as long as the last, up to MAX_BATCH calls, so
+	 * reading the clock adds almost nothing to the time of cheap calls.
+	 *
+	 * @param operation the call to measure
+	 * @return the average time per call in nanoseconds
+	 */
+	private double iteration(Operation operation)
+	{
+		int calls = 0;
+		int folded = 0;
+		int batch = 1;
+		long start = System.nanoTime();
+		long elapsed;
+		do
+		{
+			for(int i = 0; i < batch; i++)
+			{
+				folded += operation.run(calls + i);
+			}
+			calls += batch;
+			batch = Math.min(MAX_BATCH, 2 * batch);
+			elapsed = System.nanoTime() - start;
+		}
+		while(elapsed < iterationNanos);
+		sink = folded;
+		return (double)elapsed / calls;
+	}
+
+	/**
+	 * Writes the recorded results as a JSON array
+	 *
+	 * @param file path of the output file
+	 * @throws IOException if the file cannot be written
+	 */
+	private void write(String file) throws IOException
+	{
+		PrintWriter writer = new PrintWriter(new FileWriter(file));
+		try
+		{
+			writer.println("[");
+			for(int i = 0; i < results.size(); i++)
+			{
+				writer.print("  " + results.get(i));
+				writer.println(i + 1 < results.size() ? "," : "");
+			}
+			writer.println("]");
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+	/**
+	 * A call being measured. The argument counts the calls so far and the result is folded
+	 * into the sink.
+	 */
+	private abstract static class Operation
+	{
+		abstract int run(int i);
+	}
+}
@@ -0,0 +1,126 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+public final class BreakPointIndex
+{
+	private final TankStore store;
+	private final double[] keys;
+	private final int[] offsets;
+	private final int[] rows;
+
+	/**
+	 * Creates an index over flat arrays. The rows of the group of key i are
+	 * rows[offsets[i]] up to but not including rows[offsets[i+1]].
+	 *
+	 * @param store the columns of the tanks the rows refer to
+	 * @param keys the break points in ascending order
+	 * @param offsets the start of the group of every key, followed by the total number of rows
+	 * @param rows the rows of every group, one group after the other
+	 */
+	BreakPointIndex(TankStore store, double[] keys, int[] offsets, int[] rows)
+	{
+		this.store = store;
+		this.keys = keys;
+		this.offsets = offsets;
+		this.rows = rows;
+	}
+
+	/**
+	 * Groups rows that are sorted by a column into one group per distinct value
+	 *
+	 * @param store the columns of the tanks
+	 * @param column the column the rows are sorted by
+	 * @param sorted the rows ordered by the column
+	 * @return an index from every distinct value of the column to its rows
+	 */
+	static BreakPointIndex grouped(TankStore store, DoubleBuffer column, int[] sorted)
+	{
+		double[] keys = new double[sorted.length];
+		int[] offsets = new int[sorted.length + 1];
+		int groups = 0;
+		for(int i = 0; i < sorted.length; i++)
+		{
+			double value = column.get(sorted[i]);
+			if(groups == 0 || keys[groups-1] != value)
+			{
+				keys[groups] = value;
+				offsets[groups] = i;
+				groups++;
+			}
+		}
+		offsets[groups] = sorted.length;
+		return new BreakPointIndex(store, Arrays.copyOf(keys, groups), Arrays.copyOf(offsets, groups + 1), sorted);
+	}
+
+	/**
+	 * @return the number of break points
+	 */
+	public int size()
+	{
+		return keys.length;
+	}
+
+	/**
+	 * @param i index of a break point
+	 * @return the height of the break point
+	 */
+	public double key(int i)
+	{
+		return keys[i];
+	}
+
+	/**
+	 * Finds a break point by binary search over the sorted keys
+	 *
+	 * @param height a height
+	 * @return the index of the break point at the height, or -1 if there is none
+	 */
+	public int indexOf(double height)
+	{
+		int found = Arrays.binarySearch(keys, height);
+		return (found >= 0 ? found : -1);
+	}
+
+	/**
+	 * @param i index of a break point
+	 * @return the number of tanks in the group of the break point
+	 */
+	public int count(int i)
+	{
+		return offsets[i+1] - offsets[i];
+	}
+
+	/**
+	 * @param i index of a break point
+	 * @param j position of a tank in the group of the break point
+	 * @return the row of the tank in the store
+	 * @throws IndexOutOfBoundsException if the group has no such position
+	 */
+	public int row(int i, int j) throws IndexOutOfBoundsException
+	{
+		if(j < 0 || j >= count(i))
+		{
+			throw new IndexOutOfBoundsException("Group " + i + " has no position " + j + ".");
+		}
+		return rows[offsets[i] + j];
+	}
+
+	/**
+	 * @param i index of a break point
+	 * @param j position of a tank in the group of the break point
+	 * @return the tank
+	 * @throws UnsupportedOperationException if the store holds no tank objects
+	 */
+	public Tank tank(int i, int j) throws UnsupportedOperationException
+	{
+		return store.tank(row(i, j));
+	}
+
+	/**
+	 * @return the columns of the tanks the rows refer to
+	 */
+	public TankStore store()
+	{
+		return store;
+	}
+}
@@ -0,0 +1,453 @@
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Random;
+
+final class BreakPointTree
+{
+	private final Random priorities = new Random();
+	private final double origin;
+	private Node root;
+	private final CompensatedSum maxVolume = new CompensatedSum();
+
+	/**
+	 * Creates an empty tree. Heights are measured from the origin inside the tree so that the
+	 * running sums of area times height stay small.
+	 *
+	 * @param origin a height near the tanks that will be added
+	 */
+	BreakPointTree(double origin)
+	{
+		this.origin = origin;
+		root = null;
+	}
+
+	/**
+	 * Builds a tree holding every row of a store
+	 *
+	 * @param store the columns of the tanks
+	 * @return the tree of the break points of the store
+	 */
+	static BreakPointTree of(TankStore store)
+	{
+		BreakPointTree tree = new BreakPointTree(store.size() == 0 ? 0.0 : store.bottom(0));
+		for(int row = 0; row < store.size(); row++)
+		{
+			tree.add(store.bottom(row), store.top(row), store.baseArea(row));
+		}
+		return tree;
+	}
+
+	/**
+	 * Adds a tank: its bottom becomes a break point where the active base area grows by the
+	 * area of the tank and its top a break point where it shrinks again
+	 *
+	 * @param bottom height of the bottom of the tank
+	 * @param top height of the top of the tank
+	 * @param baseArea area of the base of the tank
+	 */
+	void add(double bottom, double top, double baseArea)
+	{
+		root = insert(root, bottom, baseArea, 1);
+		root = insert(root, top, -baseArea, -1);
+		maxVolume.add(baseArea * (top - bottom));
+	}
+
+	/**
+	 * Removes a tank that was added with the same dimensions. A break point is dropped once no
+	 * tank has its bottom or top there.
+	 *
+	 * @param bottom height of the bottom of the tank
+	 * @param top height of the top of the tank
+	 * @param baseArea area of the base of the tank
+	 */
+	void remove(double bottom, double top, double baseArea)
+	{
+		root = delete(root, bottom, baseArea, 1);
+		root = delete(root, top, -baseArea, -1);
+		maxVolume.add(-baseArea * (top - bottom));
+		if(root == null)
+		{
+			maxVolume.reset();
+		}
+	}
+
+	/**
+	 * @return the number of break points in the tree
+	 */
+	int size()
+	{
+		return count(root);
+	}
+
+	/**
+	 * @return the volume of the system when every tank is full
+	 */
+	double getMaxVolume()
+	{
+		return maxVolume.value();
+	}
+
+	/**
+	 * Checks if a water height lies between the lowest and the highest break point
+	 *
+	 * @param waterHeight The level of the water in the system
+	 * @return True if the height is inside the range of the tree; else, false
+	 */
+	boolean contains(double waterHeight)
+	{
+		return (root != null && waterHeight >= lowest() && waterHeight <= highest());
+	}
+
+	/**
+	 * Walks down the leftmost path of the tree in O(log n)
+	 *
+	 * @return the lowest break point, which is the lowest bottom of the tanks
+	 * @throws IllegalStateException if the tree is empty
+	 */
+	double lowest() throws IllegalStateException
+	{
+		if(root == null)
+		{
+			throw new IllegalStateException("The water system holds no tanks.");
+		}
+		Node node = root;
+		while(node.left != null)
+		{
+			node = node.left;
+		}
+		return node.key;
+	}
+
+	/**
+	 * Walks down the rightmost path of the tree in O(log n)
+	 *
+	 * @return the highest break point, which is the highest top of the tanks
+	 * @throws IllegalStateException if the tree is empty
+	 */
+	double highest() throws IllegalStateException
+	{
+		if(root == null)
+		{
+			throw new IllegalStateException("The water system holds no tanks.");
+		}
+		Node node = root;
+		while(node.right != null)
+		{
+			node = node.right;
+		}
+		return node.key;
+	}
+
+	/**
+	 * Finds the volume at a water level. Every break point at or below the level contributes
+	 * its change in area times its distance below the level, so the volume is the level times
+	 * the summed area changes minus the summed area changes times their heights, both of which
+	 * are gathered on one path from the root.
+	 *
+	 * @param waterHeight The level of the water in the system
+	 * @return Volume of water in the system at the given water level
+	 */
+	double volumeAt(double waterHeight)
+	{
+		double area = 0.0;
+		double moment = 0.0;
+		Node node = root;
+		while(node != null)
+		{
+			if(node.key <= waterHeight)
+			{
+				area += sumArea(node.left) + node.area;
+				moment += sumMoment(node.left) + node.area * (node.key - origin);
+				node = node.right;
+			}
+			else
+			{
+				node = node.left;
+			}
+		}
+		return (waterHeight - origin) * area - moment;
+	}
+
+	/**
+	 * Finds the water level that holds a volume by walking down to the highest break point
+	 * whose volume is not above it, then extending the level by the active base area there
+	 *
+	 * @param waterVolume Volume of water in the system
+	 * @return The level of the water in the system
+	 */
+	double heightAt(double waterVolume)
+	{
+		double area = 0.0;
+		double moment = 0.0;
+		double bestHeight = Double.NaN;
+		double bestArea = 0.0;
+		double bestVolume = 0.0;
+		Node node = root;
+		while(node != null)
+		{
+			double areaThrough = area + sumArea(node.left) + node.area;
+			double momentThrough = moment + sumMoment(node.left) + node.area * (node.key - origin);
+			double volume = (node.key - origin) * areaThrough - momentThrough;
+			if(volume <= waterVolume)
+			{
+				bestHeight = node.key;
+				bestArea = areaThrough;
+				bestVolume = volume;
+				area = areaThrough;
+				moment = momentThrough;
+				node = node.right;
+			}
+			else
+			{
+				node = node.left;
+			}
+		}
+		if(bestArea <= 0)
+		{
+			return bestHeight;
+		}
+		return bestHeight + (waterVolume - bestVolume) / bestArea;
+	}
+
+	/**
+	 * Lists the break points in order with the active base area above each of them
+	 *
+	 * @return the volume curve of the tanks in the tree
+	 */
+	VolumeCurve toCurve()
+	{
+		int size = size();
+		double[] heights = new double[size];
+		double[] areas = new double[size];
+		Deque<Node> path = new ArrayDeque<Node>();
+		Node node = root;
+		CompensatedSum area = new CompensatedSum();
+		int active = 0;
+		int i = 0;
+		while(node != null || !path.isEmpty())
+		{
+			while(node != null)
+			{
+				path.push(node);
+				node = node.left;
+			}
+			node = path.pop();
+			area.add(node.area);
+			active += node.opened;
+			if(active == 0)
+			{
+				//Nothing is active, so drop any rounding error left over from the subtractions
+				area.reset();
+			}
+			heights[i] = node.key;
+			areas[i] = area.value();
+			i++;
+			node = node.right;
+		}
+		return new VolumeCurve(heights, areas);
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * Adds one bottom or top event at a height, creating the break point if it is new
+	 *
+	 * @param node root of the subtree
+	 * @param key height of the event
+	 * @param area change in active base area at the event
+	 * @param opened change in the number of active tanks at the event
+	 * @return the new root of the subtree
+	 */
+	private Node insert(Node node, double key, double area, int opened)
+	{
+		if(node == null)
+		{
+			node = new Node(key, priorities.nextInt());
+		}
+		else if(key < node.key)
+		{
+			node.left = insert(node.left, key, area, opened);
+			if(node.left.priority > node.priority)
+			{
+				node = rotateRight(node);
+			}
+			update(node);
+			return node;
+		}
+		else if(key > node.key)
+		{
+			node.right = insert(node.right, key, area, opened);
+			if(node.right.priority > node.priority)
+			{
+				node = rotateLeft(node);
+			}
+			update(node);
+			return node;
+		}
+		node.events++;
+		node.area += area;
+		node.opened += opened;
+		update(node);
+		return node;
+	}
+
+	/**
+	 * Removes one bottom or top event at a height, dropping the break point when it has none
+	 * left
+	 *
+	 * @param node root of the subtree
+	 * @param key height of the event
+	 * @param area change in active base area that the event made
+	 * @param opened change in the number of active tanks that the event made
+	 * @return the new root of the subtree
+	 * @throws IllegalStateException if there is no break point at the height
+	 */
+	private Node delete(Node node, double key, double area, int opened) throws IllegalStateException
+	{
+		if(node == null)
+		{
+			throw new IllegalStateException("No break point at " + key + ".");
+		}
+		if(key < node.key)
+		{
+			node.left = delete(node.left, key, area, opened);
+		}
+		else if(key > node.key)
+		{
+			node.right = delete(node.right, key, area, opened);
+		}
+		else
+		{
+			node.events--;
+			node.area -= area;
+			node.opened -= opened;
+			if(node.events == 0)
+			{
+				return unlink(node);
+			}
+		}
+		update(node);
+		return node;
+	}
+
+	/**
+	 * Rotates a node down until it is a leaf or has one child, then splices it out
+	 *
+	 * @param node the node to remove
+	 * @return the new root of the subtree
+	 */
+	private Node unlink(Node node)
+	{
+		if(node.left == null)
+		{
+			return node.right;
+		}
+		if(node.right == null)
+		{
+			return node.left;
+		}
+		Node top;
+		if(node.left.priority > node.right.priority)
+		{
+			top = rotateRight(node);
+			top.right = unlink(node);
+		}
+		else
+		{
+			top = rotateLeft(node);
+			top.left = unlink(node);
+		}
+		update(top);
+		return top;
+	}
+
+	/**
+	 * @param node a node with a left child
+	 * @return the left child, now the root of the subtree
+	 */
+	private Node rotateRight(Node node)
+	{
+		Node left = node.left;
+		node.left = left.right;
+		left.right = node;
+		update(node);
+		update(left);
+		return left;
+	}
+
+	/**
+	 * @param node a node with a right child
+	 * @return the right child, now the root of the subtree
+	 */
+	private Node rotateLeft(Node node)
+	{
+		Node right = node.right;
+		node.right = right.left;
+		right.left = node;
+		update(node);
+		update(right);
+		return right;
+	}
+
+	/**
+	 * Recomputes the sums of a node from its own event totals and its children
+	 *
+	 * @param node the node to update
+	 */
+	private void update(Node node)
+	{
+		node.count = 1 + count(node.left) + count(node.right);
+		node.sumArea = node.area + sumArea(node.left) + sumArea(node.right);
+		node.sumMoment = node.area * (node.key - origin) + sumMoment(node.left) + sumMoment(node.right);
+	}
+
+	/**
+	 * @param node root of a subtree, or null
+	 * @return the number of break points in the subtree
+	 */
+	private static int count(Node node)
+	{
+		return (node == null ? 0 : node.count);
+	}
+
+	/**
+	 * @param node root of a subtree, or null
+	 * @return the summed changes in active base area of the subtree
+	 */
+	private static double sumArea(Node node)
+	{
+		return (node == null ? 0.0 : node.sumArea);
+	}
+
+	/**
+	 * @param node root of a subtree, or null
+	 * @return the summed changes in active base area times their height above the origin
+	 */
+	private static double sumMoment(Node node)
+	{
+		return (node == null ? 0.0 : node.sumMoment);
+	}
+
+	/**
+	 * A break point with the bottom and top events at its height and the sums over its subtree
+	 */
+	private static final class Node
+	{
+		final double key;
+		final int priority;
+		Node left;
+		Node right;
+		int events;
+		int opened;
+		double area;
+		int count;
+		double sumArea;
+		double sumMoment;
+
+		Node(double key, int priority)
+		{
+			this.key = key;
+			this.priority = priority;
+		}
+	}
+}
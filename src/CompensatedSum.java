@@ -0,0 +1,49 @@
+final class CompensatedSum
+{
+	private double sum;
+	private double compensation;
+
+	/**
+	 * Creates a running sum of zero. Each addition keeps the low-order bits that rounding
+	 * drops in a separate compensation term (Neumaier's variant of Kahan summation), so the
+	 * error of a long sum stays near one rounding instead of growing with its length.
+	 */
+	CompensatedSum()
+	{
+		reset();
+	}
+
+	/**
+	 * @param value the value to add, which may be negative
+	 */
+	void add(double value)
+	{
+		double total = sum + value;
+		if(Math.abs(sum) >= Math.abs(value))
+		{
+			compensation += (sum - total) + value;
+		}
+		else
+		{
+			compensation += (value - total) + sum;
+		}
+		sum = total;
+	}
+
+	/**
+	 * @return the sum of the values added since the last reset
+	 */
+	double value()
+	{
+		return sum + compensation;
+	}
+
+	/**
+	 * Sets the sum back to zero
+	 */
+	void reset()
+	{
+		sum = 0.0;
+		compensation = 0.0;
+	}
+}
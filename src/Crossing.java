@@ -0,0 +1,61 @@
+public final class Crossing
+{
+	private final Tank tank;
+	private final boolean top;
+	private final boolean rising;
+
+	/**
+	 * Creates a record of the water level passing the bottom or the top of a tank
+	 * 
+	 * @param tank the tank that was passed
+	 * @param top True if the top of the tank was passed; false if its bottom was
+	 * @param rising True if the level passed it going up; false if going down
+	 */
+	Crossing(Tank tank, boolean top, boolean rising)
+	{
+		this.tank = tank;
+		this.top = top;
+		this.rising = rising;
+	}
+
+	/**
+	 * @return the tank that was passed
+	 */
+	public Tank getTank()
+	{
+		return tank;
+	}
+
+	/**
+	 * @return the height that was passed, the top or the bottom of the tank
+	 */
+	public double getHeight()
+	{
+		return (top ? tank.getTop() : tank.getBottom());
+	}
+
+	/**
+	 * @return True if the top of the tank was passed, so it became full or stopped being full; false if its bottom was
+	 */
+	public boolean isTop()
+	{
+		return top;
+	}
+
+	/**
+	 * @return True if the level passed the tank going up; false if going down
+	 */
+	public boolean isRising()
+	{
+		return rising;
+	}
+
+	/**
+	 * @return the kind of crossing and the height it happened at
+	 */
+	@Override
+	public String toString()
+	{
+		return (rising ? "rise past " : "fall past ") + (top ? "top" : "bottom") + " at " + getHeight();
+	}
+}
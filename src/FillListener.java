@@ -0,0 +1,30 @@
+public interface FillListener
+{
+	/**
+	 * Called when the water level passes the bottom of a tank during a step
+	 * 
+	 * @param step index of the step in the flow schedule
+	 * @param tank the tank whose bottom was passed
+	 * @param rising True if the tank started holding water; false if it became empty
+	 */
+	void crossedBottom(int step, Tank tank, boolean rising);
+	
+	/**
+	 * Called when the water level passes the top of a tank during a step
+	 * 
+	 * @param step index of the step in the flow schedule
+	 * @param tank the tank whose top was passed
+	 * @param rising True if the tank became full; false if it stopped being full
+	 */
+	void crossedTop(int step, Tank tank, boolean rising);
+	
+	/**
+	 * Called at the end of every step, after the crossings of that step
+	 * 
+	 * @param step index of the step in the flow schedule
+	 * @param volume volume of water in the system after the step
+	 * @param level level of the water in the system after the step
+	 * @param activeArea active base area at the level of the water
+	 */
+	void stepped(int step, double volume, double level, double activeArea);
+}
@@ -0,0 +1,181 @@
+public final class FillSimulation
+{
+	private final TankStore store;
+	private final VolumeCurve curve;
+	private final int[] byBottom;
+	private final int[] byTop;
+	private int wet;
+	private int full;
+	private int segment;
+	private double volume;
+	private double level;
+	private int steps;
+
+	/**
+	 * Prepares a simulation of the water in a system, starting from a given volume. The tanks
+	 * are sorted by bottom and by top once here. Each step afterwards only walks past the
+	 * break points and tanks that the level actually crosses, so a run of any length uses no
+	 * memory beyond these orders.
+	 *
+	 * @param system the water system to simulate
+	 * @param initialVolume volume of water in the system before the first step
+	 * @throws IllegalArgumentException if the system has no tanks or the volume is negative or more than the maximum capacity of the system
+	 * @throws UnsupportedOperationException if the system holds no tank objects to report crossings with
+	 */
+	public FillSimulation(WaterSystem system, double initialVolume) throws IllegalArgumentException, UnsupportedOperationException
+	{
+		store = system.tankStore();
+		if(!store.hasTanks())
+		{
+			throw new UnsupportedOperationException("The system was created from columns and holds no tank objects.");
+		}
+		curve = system.volumeCurve();
+		if(curve.size() == 0)
+		{
+			throw new IllegalArgumentException("The water system holds no tanks.");
+		}
+		if(!(initialVolume >= 0 && initialVolume <= curve.getMaxVolume()))
+		{
+			throw new IllegalArgumentException("Given water volume is negative or more than the maximum capacity of the system");
+		}
+		byBottom = store.rowsByBottom();
+		byTop = store.rowsByTop();
+		volume = initialVolume;
+		segment = curve.walkTo(0, volume);
+		level = curve.heightIn(segment, volume);
+		while(wet < byBottom.length && store.bottom(byBottom[wet]) < level)
+		{
+			wet++;
+		}
+		while(full < byTop.length && store.top(byTop[full]) <= level)
+		{
+			full++;
+		}
+		steps = 0;
+	}
+
+	/**
+	 * Runs one step for every entry of a flow schedule
+	 *
+	 * @param flows volume added to the system in each step, negative for outflow
+	 * @param listener receives the crossings and the state after every step
+	 */
+	public void run(double[] flows, FillListener listener)
+	{
+		for(double flow : flows)
+		{
+			step(flow, listener);
+		}
+	}
+
+	/**
+	 * Adds a volume of water to the system, or takes it out if negative, and moves the level
+	 * along the volume curve. Water beyond the capacity of the system spills and water below
+	 * an empty system cannot be drained, so the volume stays between zero and the maximum.
+	 * Tanks are reported in the order the level passes them.
+	 *
+	 * @param flow volume added to the system in this step, negative for outflow
+	 * @param listener receives the crossings and the state after the step
+	 */
+	public void step(double flow, FillListener listener)
+	{
+		volume = Math.max(0.0, Math.min(curve.getMaxVolume(), volume + flow));
+		segment = curve.walkTo(segment, volume);
+		double newLevel = curve.heightIn(segment, volume);
+		if(newLevel > level)
+		{
+			rise(newLevel, listener);
+		}
+		else if(newLevel < level)
+		{
+			fall(newLevel, listener);
+		}
+		level = newLevel;
+		listener.stepped(steps, volume, level, curve.areaIn(segment));
+		steps++;
+	}
+
+	/**
+	 * @return volume of water in the system
+	 */
+	public double getVolume()
+	{
+		return volume;
+	}
+
+	/**
+	 * @return level of the water in the system
+	 */
+	public double getLevel()
+	{
+		return level;
+	}
+
+	/**
+	 * @return number of steps run so far
+	 */
+	public int getSteps()
+	{
+		return steps;
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * Reports the bottoms the level rises above and the tops it reaches, lowest first
+	 *
+	 * @param newLevel the level after the step
+	 * @param listener receives the crossings
+	 */
+	private void rise(double newLevel, FillListener listener)
+	{
+		while(true)
+		{
+			double bottom = (wet < byBottom.length ? store.bottom(byBottom[wet]) : Double.POSITIVE_INFINITY);
+			double top = (full < byTop.length ? store.top(byTop[full]) : Double.POSITIVE_INFINITY);
+			if(bottom < newLevel && bottom <= top)
+			{
+				listener.crossedBottom(steps, store.tank(byBottom[wet]), true);
+				wet++;
+			}
+			else if(top <= newLevel)
+			{
+				listener.crossedTop(steps, store.tank(byTop[full]), true);
+				full++;
+			}
+			else
+			{
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Reports the tops the level falls below and the bottoms it falls to, highest first
+	 *
+	 * @param newLevel the level after the step
+	 * @param listener receives the crossings
+	 */
+	private void fall(double newLevel, FillListener listener)
+	{
+		while(true)
+		{
+			double bottom = (wet > 0 ? store.bottom(byBottom[wet-1]) : Double.NEGATIVE_INFINITY);
+			double top = (full > 0 ? store.top(byTop[full-1]) : Double.NEGATIVE_INFINITY);
+			if(top > newLevel && top >= bottom)
+			{
+				full--;
+				listener.crossedTop(steps, store.tank(byTop[full]), false);
+			}
+			else if(bottom >= newLevel)
+			{
+				wet--;
+				listener.crossedBottom(steps, store.tank(byBottom[wet]), false);
+			}
+			else
+			{
+				return;
+			}
+		}
+	}
+}
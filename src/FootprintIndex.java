@@ -0,0 +1,168 @@
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+
+final class FootprintIndex
+{
+	/** Number of children of every node of the tree */
+	private static final int FANOUT = 16;
+
+	private final double[] footX0;
+	private final double[] footY0;
+	private final double[] footX1;
+	private final double[] footY1;
+	/** Bounding boxes by level; level 0 holds the footprints in packed order */
+	private final double[][] minX;
+	private final double[][] minY;
+	private final double[][] maxX;
+	private final double[][] maxY;
+	private final int[] rows;
+
+	/**
+	 * Packs the x/y footprints of the tanks in a store into an R-tree with the
+	 * sort-tile-recursive method: the footprints are sorted into vertical slices by the x of
+	 * their centres, each slice is sorted by the y of the centres, and every run of FANOUT
+	 * boxes becomes a node of the level above. The tree is built once in O(n log n) and a
+	 * region query visits only the nodes whose box overlaps the region.
+	 *
+	 * @param store the columns of the tanks, holding the tank objects or their corner columns
+	 */
+	FootprintIndex(TankStore store)
+	{
+		int size = store.size();
+		footX0 = new double[size];
+		footY0 = new double[size];
+		footX1 = new double[size];
+		footY1 = new double[size];
+		double[] centreX = new double[size];
+		double[] centreY = new double[size];
+		double[] bL = new double[3];
+		double[] tR = new double[3];
+		for(int row = 0; row < size; row++)
+		{
+			store.corners(row, bL, tR);
+			footX0[row] = Math.min(bL[0], tR[0]);
+			footY0[row] = Math.min(bL[1], tR[1]);
+			footX1[row] = Math.max(bL[0], tR[0]);
+			footY1[row] = Math.max(bL[1], tR[1]);
+			centreX[row] = (footX0[row] + footX1[row]) / 2;
+			centreY[row] = (footY0[row] + footY1[row]) / 2;
+		}
+		rows = store.identityRows();
+		int[] buffer = new int[size];
+		TankStore.sortRows(DoubleBuffer.wrap(centreX), rows, buffer, 0, size);
+		int leaves = (size + FANOUT - 1) / FANOUT;
+		int slices = (int)Math.ceil(Math.sqrt(leaves));
+		int sliceSize = Math.max(1, slices * FANOUT);
+		for(int low = 0; low < size; low += sliceSize)
+		{
+			TankStore.sortRows(DoubleBuffer.wrap(centreY), rows, buffer, low, Math.min(size, low + sliceSize));
+		}
+
+		int levels = 1;
+		for(int count = size; count > 1; count = (count + FANOUT - 1) / FANOUT)
+		{
+			levels++;
+		}
+		minX = new double[levels][];
+		minY = new double[levels][];
+		maxX = new double[levels][];
+		maxY = new double[levels][];
+		minX[0] = new double[size];
+		minY[0] = new double[size];
+		maxX[0] = new double[size];
+		maxY[0] = new double[size];
+		for(int i = 0; i < size; i++)
+		{
+			minX[0][i] = footX0[rows[i]];
+			minY[0][i] = footY0[rows[i]];
+			maxX[0][i] = footX1[rows[i]];
+			maxY[0][i] = footY1[rows[i]];
+		}
+		for(int level = 1; level < levels; level++)
+		{
+			int below = minX[level-1].length;
+			int count = (below + FANOUT - 1) / FANOUT;
+			minX[level] = new double[count];
+			minY[level] = new double[count];
+			maxX[level] = new double[count];
+			maxY[level] = new double[count];
+			Arrays.fill(minX[level], Double.POSITIVE_INFINITY);
+			Arrays.fill(minY[level], Double.POSITIVE_INFINITY);
+			Arrays.fill(maxX[level], Double.NEGATIVE_INFINITY);
+			Arrays.fill(maxY[level], Double.NEGATIVE_INFINITY);
+			for(int child = 0; child < below; child++)
+			{
+				int node = child / FANOUT;
+				minX[level][node] = Math.min(minX[level][node], minX[level-1][child]);
+				minY[level][node] = Math.min(minY[level][node], minY[level-1][child]);
+				maxX[level][node] = Math.max(maxX[level][node], maxX[level-1][child]);
+				maxY[level][node] = Math.max(maxY[level][node], maxY[level-1][child]);
+			}
+		}
+	}
+
+	/**
+	 * Finds the rows whose footprint shares a positive area with a region, in time
+	 * proportional to the number found plus the height of the tree
+	 *
+	 * @param region the area of the floor to search
+	 * @return the matching rows of the store
+	 */
+	int[] search(Region region)
+	{
+		int[] found = new int[16];
+		int count = 0;
+		int top = minX.length - 1;
+		if(minX[0].length == 0)
+		{
+			return new int[0];
+		}
+		//Pending nodes as pairs of level and index; each level adds at most FANOUT of them
+		int[] levels = new int[FANOUT * minX.length];
+		int[] nodes = new int[FANOUT * minX.length];
+		int depth = 0;
+		for(int node = 0; node < minX[top].length; node++)
+		{
+			levels[depth] = top;
+			nodes[depth] = node;
+			depth++;
+		}
+		while(depth > 0)
+		{
+			depth--;
+			int level = levels[depth];
+			int node = nodes[depth];
+			if(!region.overlaps(minX[level][node], minY[level][node], maxX[level][node], maxY[level][node]))
+			{
+				continue;
+			}
+			if(level == 0)
+			{
+				if(count == found.length)
+				{
+					found = Arrays.copyOf(found, 2 * count);
+				}
+				found[count++] = rows[node];
+				continue;
+			}
+			int end = Math.min(minX[level-1].length, (node + 1) * FANOUT);
+			for(int child = node * FANOUT; child < end; child++)
+			{
+				levels[depth] = level - 1;
+				nodes[depth] = child;
+				depth++;
+			}
+		}
+		return Arrays.copyOf(found, count);
+	}
+
+	/**
+	 * @param row index of a tank in the store
+	 * @param region an area of the floor
+	 * @return the area the footprint of the tank shares with the region
+	 */
+	double overlap(int row, Region region)
+	{
+		return region.overlap(footX0[row], footY0[row], footX1[row], footY1[row]);
+	}
+}
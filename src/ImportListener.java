@@ -0,0 +1,11 @@
+public interface ImportListener
+{
+	/**
+	 * Called for every row of an import that could not be made into a tank. The import goes
+	 * on with the next row.
+	 * 
+	 * @param line number of the line in the input, counting from 1
+	 * @param reason why the row was rejected
+	 */
+	void invalidRow(long line, String reason);
+}
@@ -0,0 +1,150 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+final class IntervalIndex
+{
+	private final int[] rows;
+	private final double[] bottoms;
+	private final double[] maxTops;
+	private final int leaves;
+
+	/**
+	 * Indexes the rows of a store for stabbing queries. The rows are sorted by bottom, and a
+	 * tree over that order keeps the highest top of every range of rows, so the rows holding
+	 * a height can be found without looking at the rows that end below it.
+	 *
+	 * @param store the columns of the tanks
+	 */
+	IntervalIndex(TankStore store)
+	{
+		rows = store.rowsByBottom();
+		bottoms = new double[rows.length];
+		int size = 1;
+		while(size < rows.length)
+		{
+			size *= 2;
+		}
+		leaves = size;
+		maxTops = new double[2 * size];
+		Arrays.fill(maxTops, Double.NEGATIVE_INFINITY);
+		for(int i = 0; i < rows.length; i++)
+		{
+			bottoms[i] = store.bottom(rows[i]);
+			maxTops[size + i] = store.top(rows[i]);
+		}
+		for(int node = size - 1; node > 0; node--)
+		{
+			maxTops[node] = Math.max(maxTops[2 * node], maxTops[2 * node + 1]);
+		}
+	}
+
+	/**
+	 * Lists the rows whose bottom is below a height and whose top is above it. Each row is
+	 * found in O(log n), and ranges whose highest top is not above the height are skipped.
+	 *
+	 * @param waterHeight the height to stab
+	 * @return a cursor over the matching rows in order of their bottoms
+	 */
+	Cursor stab(double waterHeight)
+	{
+		int below = Arrays.binarySearch(bottoms, waterHeight);
+		if(below < 0)
+		{
+			below = -below - 1;
+		}
+		//Step back over equal bottoms, since a tank whose bottom is at the height holds no water
+		while(below > 0 && bottoms[below-1] >= waterHeight)
+		{
+			below--;
+		}
+		return new Cursor(waterHeight, below);
+	}
+
+	/**
+	 * Walks the tree depth first, left to right, yielding one matching row at a time
+	 */
+	final class Cursor
+	{
+		private final double waterHeight;
+		private final int limit;
+		private final int[] nodes = new int[64];
+		private final int[] starts = new int[64];
+		private final int[] widths = new int[64];
+		private int depth;
+		private int next;
+
+		private Cursor(double waterHeight, int limit)
+		{
+			this.waterHeight = waterHeight;
+			this.limit = limit;
+			depth = 0;
+			if(limit > 0)
+			{
+				push(1, 0, leaves);
+			}
+			next = advance();
+		}
+
+		/**
+		 * @return True if another row holds the height; else, false
+		 */
+		boolean hasNext()
+		{
+			return next >= 0;
+		}
+
+		/**
+		 * @return the next row holding the height
+		 * @throws NoSuchElementException if there are no more rows
+		 */
+		int nextRow() throws NoSuchElementException
+		{
+			if(next < 0)
+			{
+				throw new NoSuchElementException();
+			}
+			int row = rows[next];
+			next = advance();
+			return row;
+		}
+
+		/**
+		 * @return position in the bottom order of the next matching row, or -1 if there is none
+		 */
+		private int advance()
+		{
+			while(depth > 0)
+			{
+				depth--;
+				int node = nodes[depth];
+				int start = starts[depth];
+				int width = widths[depth];
+				if(start >= limit || maxTops[node] <= waterHeight)
+				{
+					continue;
+				}
+				if(width == 1)
+				{
+					return start;
+				}
+				int half = width / 2;
+				push(2 * node + 1, start + half, half);
+				push(2 * node, start, half);
+			}
+			return -1;
+		}
+
+		/**
+		 * @param node index of a tree node
+		 * @param start position in the bottom order of the first row under the node
+		 * @param width number of leaves under the node
+		 */
+		private void push(int node, int start, int width)
+		{
+			nodes[depth] = node;
+			starts[depth] = start;
+			widths[depth] = width;
+			depth++;
+		}
+	}
+}
@@ -0,0 +1,166 @@
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+public class MetricsRecorder implements SystemMetrics, MetricsRecorderMXBean
+{
+	/** Latency buckets: bucket b counts the calls that took less than 2^b nanoseconds */
+	private static final int BUCKETS = 64;
+	private static final int QUERIES = Query.values().length;
+
+	private final AtomicLongArray calls = new AtomicLongArray(QUERIES);
+	private final AtomicLongArray nanos = new AtomicLongArray(QUERIES);
+	private final AtomicLongArray tanksScanned = new AtomicLongArray(QUERIES);
+	private final AtomicLongArray collectionsBuilt = new AtomicLongArray(QUERIES);
+	private final AtomicLongArray latencies = new AtomicLongArray(QUERIES * BUCKETS);
+
+	/**
+	 * Creates a recorder with every counter at zero. The counters are atomic, so one recorder
+	 * can be shared by systems queried from many threads.
+	 */
+	public MetricsRecorder()
+	{
+	}
+
+	/**
+	 * @return the current time in nanoseconds
+	 */
+	@Override
+	public long start()
+	{
+		return System.nanoTime();
+	}
+
+	/**
+	 * Counts a call, adds its time to the total and to its power of two latency bucket, and
+	 * adds the tanks it scanned and the collections it built
+	 */
+	@Override
+	public void record(Query query, long start, long scanned, long built)
+	{
+		long elapsed = Math.max(0L, System.nanoTime() - start);
+		int q = query.ordinal();
+		calls.incrementAndGet(q);
+		nanos.addAndGet(q, elapsed);
+		tanksScanned.addAndGet(q, scanned);
+		collectionsBuilt.addAndGet(q, built);
+		latencies.incrementAndGet(q * BUCKETS + BUCKETS - Long.numberOfLeadingZeros(elapsed));
+	}
+
+	/**
+	 * @param query a query of the water system
+	 * @return the number of calls of the query recorded
+	 */
+	public long calls(Query query)
+	{
+		return calls.get(query.ordinal());
+	}
+
+	/**
+	 * @param query a query of the water system
+	 * @return the total time spent in the query in nanoseconds
+	 */
+	public long nanos(Query query)
+	{
+		return nanos.get(query.ordinal());
+	}
+
+	/**
+	 * @param query a query of the water system
+	 * @return the number of tanks the query scanned one by one
+	 */
+	public long tanksScanned(Query query)
+	{
+		return tanksScanned.get(query.ordinal());
+	}
+
+	/**
+	 * @param query a query of the water system
+	 * @return the number of maps and sets the query created
+	 */
+	public long collectionsBuilt(Query query)
+	{
+		return collectionsBuilt.get(query.ordinal());
+	}
+
+	/**
+	 * Copies the counters of every query that has been called. Each query gives its calls,
+	 * nanos, tanksScanned and collectionsBuilt, and one "latency.lt_2^b_ns" entry per non-empty
+	 * latency bucket, all prefixed with the name of its method, as in "heightToVolume.calls".
+	 * 
+	 * @return the counters by name, sorted
+	 */
+	public Map<String, Long> snapshot()
+	{
+		Map<String, Long> counters = new TreeMap<String, Long>();
+		for(Query query : Query.values())
+		{
+			int q = query.ordinal();
+			if(calls.get(q) == 0)
+			{
+				continue;
+			}
+			String prefix = query.method() + ".";
+			counters.put(prefix + "calls", calls.get(q));
+			counters.put(prefix + "nanos", nanos.get(q));
+			counters.put(prefix + "tanksScanned", tanksScanned.get(q));
+			counters.put(prefix + "collectionsBuilt", collectionsBuilt.get(q));
+			for(int b = 0; b < BUCKETS; b++)
+			{
+				long count = latencies.get(q * BUCKETS + b);
+				if(count > 0)
+				{
+					counters.put(prefix + "latency.lt_2^" + b + "_ns", count);
+				}
+			}
+		}
+		return counters;
+	}
+
+	/**
+	 * @return every counter by name
+	 */
+	@Override
+	public Map<String, Long> getCounters()
+	{
+		return snapshot();
+	}
+
+	/**
+	 * Sets every counter back to zero. Calls recorded while the counters are being reset may
+	 * be partly kept.
+	 */
+	@Override
+	public void reset()
+	{
+		for(int q = 0; q < QUERIES; q++)
+		{
+			calls.set(q, 0);
+			nanos.set(q, 0);
+			tanksScanned.set(q, 0);
+			collectionsBuilt.set(q, 0);
+		}
+		for(int i = 0; i < latencies.length(); i++)
+		{
+			latencies.set(i, 0);
+		}
+	}
+
+	/**
+	 * Registers the recorder with the platform MBean server
+	 * 
+	 * @param name the object name to register under, such as "tanks:type=WaterSystemMetrics"
+	 * @return the name the recorder was registered under
+	 * @throws JMException if the name is malformed or already registered
+	 */
+	public ObjectName register(String name) throws JMException
+	{
+		ObjectName objectName = new ObjectName(name);
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		return objectName;
+	}
+}
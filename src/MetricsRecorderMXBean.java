@@ -0,0 +1,14 @@
+import java.util.Map;
+
+public interface MetricsRecorderMXBean
+{
+	/**
+	 * @return every counter by name, as MetricsRecorder.snapshot gives them
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * Sets every counter back to zero
+	 */
+	void reset();
+}
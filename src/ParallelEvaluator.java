@@ -0,0 +1,311 @@
+import java.nio.DoubleBuffer;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+final class ParallelEvaluator
+{
+	private final ForkJoinPool pool;
+	private final int threshold;
+
+	/**
+	 * Creates an evaluator that splits the rows of a store into fork-join tasks until each
+	 * task holds no more rows than the threshold. Stores smaller than the threshold are
+	 * evaluated on the calling thread.
+	 *
+	 * @param pool the pool that runs the tasks
+	 * @param threshold the largest number of rows handled by one task
+	 * @throws IllegalArgumentException if the threshold is not positive
+	 */
+	ParallelEvaluator(ForkJoinPool pool, int threshold) throws IllegalArgumentException
+	{
+		if(threshold < 1)
+		{
+			throw new IllegalArgumentException("Parallel threshold must be positive.");
+		}
+		this.pool = pool;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * @param store the columns of the tanks
+	 * @return the rows of the store ordered from the lowest bottom to the highest
+	 */
+	int[] rowsByBottom(TankStore store)
+	{
+		return sortRows(store, store.bottomColumn());
+	}
+
+	/**
+	 * @param store the columns of the tanks
+	 * @return the rows of the store ordered from the lowest top to the highest
+	 */
+	int[] rowsByTop(TankStore store)
+	{
+		return sortRows(store, store.topColumn());
+	}
+
+	/**
+	 * Finds the level to which each tank is filled by splitting the rows into tasks that each
+	 * build a partial map, then joining the partial maps
+	 *
+	 * @param store the columns of the tanks, which must hold tank objects
+	 * @param waterHeight The level of the water in the system
+	 * @return A map that associates each tank with the level to which the tank is filled
+	 */
+	Map<Tank, Double> heightToTankLevel(TankStore store, double waterHeight)
+	{
+		return run(new Levels(store, waterHeight, 0, store.size()));
+	}
+
+	/**
+	 * @param store the columns of the tanks, which must hold tank objects
+	 * @return the map of all tanks and their bottom heights
+	 */
+	NavigableMap<Double, Set<Tank>> tanksByBottom(TankStore store)
+	{
+		return run(new Grouping(store, store.bottomColumn(), 0, store.size()));
+	}
+
+	/**
+	 * @param store the columns of the tanks, which must hold tank objects
+	 * @return the map of all tanks and their top heights
+	 */
+	NavigableMap<Double, Set<Tank>> tanksByTop(TankStore store)
+	{
+		return run(new Grouping(store, store.topColumn(), 0, store.size()));
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * Runs a task on the pool, or on the calling thread if it is too small to split
+	 *
+	 * @param task the task to run
+	 * @return the result of the task
+	 */
+	private <R> R run(Reduction<R> task)
+	{
+		if(task.high - task.low <= threshold)
+		{
+			return task.leaf(task.low, task.high);
+		}
+		return pool.invoke(task);
+	}
+
+	/**
+	 * Orders the rows of a store by a column, sorting halves in parallel and merging them
+	 *
+	 * @param store the columns of the tanks
+	 * @param column the column to order the rows by
+	 * @return the row indexes in ascending order of the column
+	 */
+	private int[] sortRows(TankStore store, DoubleBuffer column)
+	{
+		int[] rows = store.identityRows();
+		int[] buffer = new int[rows.length];
+		if(rows.length <= threshold)
+		{
+			TankStore.sortRows(column, rows, buffer, 0, rows.length);
+		}
+		else
+		{
+			pool.invoke(new RowSort(column, rows, buffer, 0, rows.length));
+		}
+		return rows;
+	}
+
+	/**
+	 * A task that reduces a range of rows by splitting it in halves until the halves are no
+	 * larger than the threshold, evaluating those directly and combining the results in order
+	 */
+	private abstract class Reduction<R> extends RecursiveTask<R>
+	{
+		private static final long serialVersionUID = 1L;
+		final int low;
+		final int high;
+
+		Reduction(int low, int high)
+		{
+			this.low = low;
+			this.high = high;
+		}
+
+		abstract R leaf(int low, int high);
+
+		abstract R combine(R lower, R upper);
+
+		abstract Reduction<R> split(int low, int high);
+
+		@Override
+		protected R compute()
+		{
+			if(high - low <= threshold)
+			{
+				return leaf(low, high);
+			}
+			int mid = (low + high) >>> 1;
+			Reduction<R> lower = split(low, mid);
+			Reduction<R> upper = split(mid, high);
+			lower.fork();
+			R upperResult = upper.compute();
+			return combine(lower.join(), upperResult);
+		}
+	}
+
+	/**
+	 * Finds the level to which each tank in a range of rows is filled at a given water height
+	 */
+	private final class Levels extends Reduction<Map<Tank, Double>>
+	{
+		private static final long serialVersionUID = 1L;
+		private final TankStore store;
+		private final double waterHeight;
+
+		Levels(TankStore store, double waterHeight, int low, int high)
+		{
+			super(low, high);
+			this.store = store;
+			this.waterHeight = waterHeight;
+		}
+
+		@Override
+		Map<Tank, Double> leaf(int low, int high)
+		{
+			Map<Tank, Double> levels = new HashMap<Tank, Double>();
+			for(int row = low; row < high; row++)
+			{
+				if(store.top(row) < waterHeight)
+				{
+					levels.put(store.tank(row), store.top(row) - store.bottom(row));
+				}
+				else if(store.bottom(row) < waterHeight)
+				{
+					levels.put(store.tank(row), Math.abs(waterHeight - store.bottom(row)));
+				}
+				else
+				{
+					levels.put(store.tank(row), 0.0);
+				}
+			}
+			return levels;
+		}
+
+		@Override
+		Map<Tank, Double> combine(Map<Tank, Double> lower, Map<Tank, Double> upper)
+		{
+			if(lower.size() < upper.size())
+			{
+				upper.putAll(lower);
+				return upper;
+			}
+			lower.putAll(upper);
+			return lower;
+		}
+
+		@Override
+		Reduction<Map<Tank, Double>> split(int low, int high)
+		{
+			return new Levels(store, waterHeight, low, high);
+		}
+	}
+
+	/**
+	 * Groups a range of rows into a map from the value of a column to the tanks at that value
+	 */
+	private final class Grouping extends Reduction<NavigableMap<Double, Set<Tank>>>
+	{
+		private static final long serialVersionUID = 1L;
+		private final TankStore store;
+		private final DoubleBuffer column;
+
+		Grouping(TankStore store, DoubleBuffer column, int low, int high)
+		{
+			super(low, high);
+			this.store = store;
+			this.column = column;
+		}
+
+		@Override
+		NavigableMap<Double, Set<Tank>> leaf(int low, int high)
+		{
+			NavigableMap<Double, Set<Tank>> groups = new TreeMap<Double, Set<Tank>>();
+			for(int row = low; row < high; row++)
+			{
+				Set<Tank> group = groups.get(column.get(row));
+				if(group == null)
+				{
+					group = new HashSet<Tank>();
+					groups.put(column.get(row), group);
+				}
+				group.add(store.tank(row));
+			}
+			return groups;
+		}
+
+		@Override
+		NavigableMap<Double, Set<Tank>> combine(NavigableMap<Double, Set<Tank>> lower, NavigableMap<Double, Set<Tank>> upper)
+		{
+			for(Map.Entry<Double, Set<Tank>> entry : upper.entrySet())
+			{
+				Set<Tank> group = lower.get(entry.getKey());
+				if(group == null)
+				{
+					lower.put(entry.getKey(), entry.getValue());
+				}
+				else
+				{
+					group.addAll(entry.getValue());
+				}
+			}
+			return lower;
+		}
+
+		@Override
+		Reduction<NavigableMap<Double, Set<Tank>>> split(int low, int high)
+		{
+			return new Grouping(store, column, low, high);
+		}
+	}
+
+	/**
+	 * Sorts a range of rows by sorting its halves in parallel and merging them
+	 */
+	private final class RowSort extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final DoubleBuffer column;
+		private final int[] rows;
+		private final int[] buffer;
+		private final int low;
+		private final int high;
+
+		RowSort(DoubleBuffer column, int[] rows, int[] buffer, int low, int high)
+		{
+			this.column = column;
+			this.rows = rows;
+			this.buffer = buffer;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(high - low <= threshold)
+			{
+				TankStore.sortRows(column, rows, buffer, low, high);
+				return;
+			}
+			int mid = (low + high) >>> 1;
+			invokeAll(new RowSort(column, rows, buffer, low, mid), new RowSort(column, rows, buffer, mid, high));
+			TankStore.mergeRows(column, rows, buffer, low, mid, high);
+		}
+	}
+}
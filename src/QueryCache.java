@@ -0,0 +1,82 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+final class QueryCache<K, V>
+{
+	private final Map<K, V> entries;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Creates an empty cache that drops its least recently used entry once it holds more than
+	 * the given number. Every method locks the cache, since a lookup reorders the entries.
+	 *
+	 * @param maxEntries the most entries kept
+	 */
+	QueryCache(final int maxEntries)
+	{
+		entries = new LinkedHashMap<K, V>(16, 0.75f, true)
+		{
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, V> eldest)
+			{
+				return size() > maxEntries;
+			}
+		};
+		hits = 0;
+		misses = 0;
+	}
+
+	/**
+	 * @param key the query value
+	 * @return the cached result, or null if there is none
+	 */
+	synchronized V get(K key)
+	{
+		V value = entries.get(key);
+		if(value == null)
+		{
+			misses++;
+		}
+		else
+		{
+			hits++;
+		}
+		return value;
+	}
+
+	/**
+	 * @param key the query value
+	 * @param value the result of the query
+	 */
+	synchronized void put(K key, V value)
+	{
+		entries.put(key, value);
+	}
+
+	/**
+	 * Drops every entry but keeps the counters
+	 */
+	synchronized void clear()
+	{
+		entries.clear();
+	}
+
+	/**
+	 * @return the number of lookups that found a result
+	 */
+	synchronized long hits()
+	{
+		return hits;
+	}
+
+	/**
+	 * @return the number of lookups that found nothing
+	 */
+	synchronized long misses()
+	{
+		return misses;
+	}
+}
@@ -0,0 +1,592 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+public final class QueryServer implements Closeable
+{
+	/** Most pipelined requests of one connection taken into a batch */
+	static final int MAX_BATCH = 256;
+	/** Bytes a connection may send without ending a line before it is dropped */
+	static final int MAX_LINE = 65536;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private final Map<String, WaterSystem> systems = new ConcurrentHashMap<String, WaterSystem>();
+	private final ExecutorService workers;
+	/** Connections whose answers are ready to be written by the selector thread */
+	private final Queue<Connection> answered = new ConcurrentLinkedQueue<Connection>();
+	private Selector selector;
+	private ServerSocketChannel server;
+	private Thread loop;
+	private volatile boolean closing;
+
+	/**
+	 * Creates a server that answers queries on a fixed pool of worker threads. Connections
+	 * are read and written by a single selector thread, and a worker is only taken for a
+	 * batch of requests that have arrived, so idle or slow clients hold no thread and a
+	 * burst of clients cannot exhaust the machine.
+	 * 
+	 * @param threads the number of batches answered at once
+	 * @throws IllegalArgumentException if the number of threads is not positive
+	 */
+	public QueryServer(int threads) throws IllegalArgumentException
+	{
+		if(threads < 1)
+		{
+			throw new IllegalArgumentException("Server needs at least one thread.");
+		}
+		workers = Executors.newFixedThreadPool(threads);
+	}
+
+	/**
+	 * Makes a water system queryable under a name. Systems are queried from several threads
+	 * at once, so they should be snapshots or not be changed while the server runs.
+	 * 
+	 * @param name the name clients use for the system, without spaces
+	 * @param system the water system
+	 * @throws IllegalArgumentException if the name is empty or holds whitespace
+	 */
+	public void register(String name, WaterSystem system) throws IllegalArgumentException
+	{
+		if(name.isEmpty() || name.split("\\s").length != 1)
+		{
+			throw new IllegalArgumentException("System name must be a single word.");
+		}
+		systems.put(name, system);
+	}
+
+	/**
+	 * Starts listening on the loopback address. Each request is one line of the form
+	 * "system command [argument]", where the command is heightToVolume with a height,
+	 * volumeToTankLevel with a volume, or activeBaseArea. Each answer is one line, "OK" and
+	 * the result or "ERR" and the reason, in the order the requests were sent. Clients may
+	 * send many requests before reading the answers. The requests that have arrived on all
+	 * connections by the time the selector wakes are answered together as one batch, and
+	 * the heightToVolume requests of a batch that name the same system are looked up in one
+	 * walk over its volume curve.
+	 * 
+	 * @param port the port to listen on, or 0 for any free port
+	 * @return the port the server listens on
+	 * @throws IOException if the port cannot be bound
+	 * @throws IllegalStateException if the server has already been started
+	 */
+	public synchronized int start(int port) throws IOException, IllegalStateException
+	{
+		if(server != null)
+		{
+			throw new IllegalStateException("Server has already been started.");
+		}
+		final Selector listening = Selector.open();
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		try
+		{
+			channel.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), port));
+			channel.configureBlocking(false);
+			channel.register(listening, SelectionKey.OP_ACCEPT);
+		}
+		catch(IOException ex)
+		{
+			channel.close();
+			listening.close();
+			throw ex;
+		}
+		selector = listening;
+		server = channel;
+		loop = new Thread("QueryServer-select")
+		{
+			@Override
+			public void run()
+			{
+				select(listening);
+			}
+		};
+		loop.setDaemon(true);
+		loop.start();
+		return channel.socket().getLocalPort();
+	}
+
+	/**
+	 * Stops listening, closes every open connection and stops the worker threads
+	 * 
+	 * @throws IOException if the listening socket cannot be closed
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		closing = true;
+		if(loop != null)
+		{
+			selector.wakeup();
+			try
+			{
+				loop.join();
+			}
+			catch(InterruptedException ex)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		workers.shutdownNow();
+	}
+
+	/**
+	 * Answers a batch of request lines
+	 * 
+	 * @param requests the request lines in the order they arrived
+	 * @return one answer line per request, without line breaks
+	 */
+	List<String> answer(List<String> requests)
+	{
+		String[] answers = new String[requests.size()];
+		//heightToVolume requests grouped by system, as positions in the batch
+		Map<WaterSystem, List<Integer>> volumeLookups = new HashMap<WaterSystem, List<Integer>>();
+		double[] heights = new double[answers.length];
+		for(int i = 0; i < answers.length; i++)
+		{
+			String[] words = requests.get(i).trim().split("\\s+");
+			try
+			{
+				WaterSystem system = (words.length >= 2 ? systems.get(words[0]) : null);
+				if(system == null)
+				{
+					answers[i] = "ERR " + (words.length < 2 ? "Expected a system and a command." : "Unknown system " + words[0] + ".");
+				}
+				else if(words[1].equals("heightToVolume") && words.length == 3)
+				{
+					double height = Double.parseDouble(words[2]);
+					if(system.volumeCurve().contains(height))
+					{
+						List<Integer> positions = volumeLookups.get(system);
+						if(positions == null)
+						{
+							positions = new ArrayList<Integer>();
+							volumeLookups.put(system, positions);
+						}
+						positions.add(i);
+						heights[i] = height;
+					}
+					else
+					{
+						answers[i] = "ERR Water height is outside the range of the water system.";
+					}
+				}
+				else if(words[1].equals("volumeToTankLevel") && words.length == 3)
+				{
+					answers[i] = "OK " + formatLevels(system.volumeToTankLevel(Double.parseDouble(words[2])));
+				}
+				else if(words[1].equals("activeBaseArea") && words.length == 2)
+				{
+					answers[i] = "OK " + formatCurve(system.activeBaseArea());
+				}
+				else
+				{
+					answers[i] = "ERR Unknown command " + words[1] + " with " + (words.length - 2) + " arguments.";
+				}
+			}
+			catch(NumberFormatException ex)
+			{
+				answers[i] = "ERR Argument is not a number.";
+			}
+			catch(RuntimeException ex)
+			{
+				answers[i] = "ERR " + ex.getMessage();
+			}
+		}
+		for(Map.Entry<WaterSystem, List<Integer>> lookup : volumeLookups.entrySet())
+		{
+			List<Integer> positions = lookup.getValue();
+			int[] order = new int[positions.size()];
+			for(int j = 0; j < order.length; j++)
+			{
+				order[j] = positions.get(j);
+			}
+			//Sorted heights are answered in a single walk over the curve
+			TankStore.sortRows(DoubleBuffer.wrap(heights), order, new int[order.length], 0, order.length);
+			double[] batchHeights = new double[order.length];
+			for(int j = 0; j < order.length; j++)
+			{
+				batchHeights[j] = heights[order[j]];
+			}
+			double[] volumes = new double[batchHeights.length];
+			try
+			{
+				lookup.getKey().heightsToVolumes(batchHeights, volumes);
+				for(int j = 0; j < order.length; j++)
+				{
+					answers[order[j]] = "OK " + volumes[j];
+				}
+			}
+			catch(RuntimeException ex)
+			{
+				for(int j = 0; j < order.length; j++)
+				{
+					answers[order[j]] = "ERR " + ex.getMessage();
+				}
+			}
+		}
+		List<String> lines = new ArrayList<String>(answers.length);
+		Collections.addAll(lines, answers);
+		return lines;
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * Runs the selector until the server is closed. Each round writes the answers that the
+	 * workers have finished, accepts and reads the connections that are ready, and hands
+	 * every request line that has arrived to one worker as a single batch. A connection is
+	 * not read again until the answers to its last batch have been written, so its answers
+	 * stay in order.
+	 * 
+	 * @param listening the selector of the listening socket
+	 */
+	private void select(Selector listening)
+	{
+		try
+		{
+			while(!closing)
+			{
+				listening.select();
+				List<Connection> batch = new ArrayList<Connection>();
+				Connection done;
+				while((done = answered.poll()) != null)
+				{
+					flush(done, batch);
+				}
+				Iterator<SelectionKey> keys = listening.selectedKeys().iterator();
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					if(!key.isValid())
+					{
+						continue;
+					}
+					if(key.isAcceptable())
+					{
+						accept(listening);
+					}
+					else if(key.isWritable())
+					{
+						flush((Connection)key.attachment(), batch);
+					}
+					else if(key.isReadable())
+					{
+						read((Connection)key.attachment(), batch);
+					}
+				}
+				if(!batch.isEmpty())
+				{
+					workers.execute(new Batch(batch, listening));
+				}
+			}
+		}
+		catch(IOException ex)
+		{
+			//The selector failed; the server stops
+		}
+		catch(RejectedExecutionException ex)
+		{
+			//The workers have been shut down
+		}
+		finally
+		{
+			for(SelectionKey key : listening.keys())
+			{
+				try
+				{
+					key.channel().close();
+				}
+				catch(IOException ex)
+				{
+					//Nothing more can be done with the channel
+				}
+			}
+			try
+			{
+				listening.close();
+			}
+			catch(IOException ex)
+			{
+				//Nothing more can be done with the selector
+			}
+		}
+	}
+
+	/**
+	 * Accepts every pending connection and starts reading from it
+	 * 
+	 * @param listening the selector of the listening socket
+	 * @throws IOException if the listening socket fails
+	 */
+	private void accept(Selector listening) throws IOException
+	{
+		SocketChannel channel;
+		while((channel = server.accept()) != null)
+		{
+			channel.configureBlocking(false);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(listening, SelectionKey.OP_READ, connection);
+		}
+	}
+
+	/**
+	 * Reads what has arrived on a connection and splits it into request lines
+	 * 
+	 * @param connection a connection that is ready to be read
+	 * @param batch the connections whose requests go into the next batch
+	 */
+	private void read(Connection connection, List<Connection> batch)
+	{
+		try
+		{
+			if(connection.channel.read(connection.in) < 0)
+			{
+				connection.eof = true;
+				connection.key.interestOps(0);
+				connection.lastLine();
+			}
+			else if(!connection.splitLines())
+			{
+				disconnect(connection);
+				return;
+			}
+			schedule(connection, batch);
+		}
+		catch(IOException ex)
+		{
+			disconnect(connection);
+		}
+	}
+
+	/**
+	 * Writes the answers of a connection, waiting for the socket to be writable if they do
+	 * not fit at once, and then lets the connection be read again
+	 * 
+	 * @param connection a connection with answers to write
+	 * @param batch the connections whose requests go into the next batch
+	 */
+	private void flush(Connection connection, List<Connection> batch)
+	{
+		try
+		{
+			connection.channel.write(connection.out);
+			if(connection.out.hasRemaining())
+			{
+				connection.key.interestOps(SelectionKey.OP_WRITE);
+				return;
+			}
+			connection.out = null;
+			connection.busy = false;
+			connection.key.interestOps(connection.eof ? 0 : SelectionKey.OP_READ);
+			schedule(connection, batch);
+		}
+		catch(IOException ex)
+		{
+			disconnect(connection);
+		}
+	}
+
+	/**
+	 * Adds an idle connection with complete request lines to the next batch, or closes it
+	 * if the client has stopped sending and every request has been answered
+	 * 
+	 * @param connection a connection
+	 * @param batch the connections whose requests go into the next batch
+	 */
+	private void schedule(Connection connection, List<Connection> batch)
+	{
+		if(connection.busy)
+		{
+			return;
+		}
+		if(!connection.lines.isEmpty())
+		{
+			List<String> waiting = connection.lines;
+			int taken = Math.min(MAX_BATCH, waiting.size());
+			connection.requests = new ArrayList<String>(waiting.subList(0, taken));
+			waiting.subList(0, taken).clear();
+			connection.busy = true;
+			connection.key.interestOps(0);
+			batch.add(connection);
+		}
+		else if(connection.eof)
+		{
+			disconnect(connection);
+		}
+	}
+
+	/**
+	 * @param connection a connection to close
+	 */
+	private static void disconnect(Connection connection)
+	{
+		connection.key.cancel();
+		try
+		{
+			connection.channel.close();
+		}
+		catch(IOException ex)
+		{
+			//Nothing more can be done with the connection
+		}
+	}
+
+	/**
+	 * @param levels the level of every tank
+	 * @return the levels as "x0,y0,z0,x1,y1,z1=level" entries separated by semicolons
+	 */
+	private static String formatLevels(Map<Tank, Double> levels)
+	{
+		StringBuilder text = new StringBuilder();
+		for(Map.Entry<Tank, Double> entry : levels.entrySet())
+		{
+			if(text.length() > 0)
+			{
+				text.append(';');
+			}
+			double[] bL = entry.getKey().getBottomLeft();
+			double[] tR = entry.getKey().getTopRight();
+			text.append(bL[0]).append(',').append(bL[1]).append(',').append(bL[2]).append(',');
+			text.append(tR[0]).append(',').append(tR[1]).append(',').append(tR[2]);
+			text.append('=').append(entry.getValue());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * @param areas the active base area at each break point
+	 * @return the areas as "height=area" entries separated by semicolons, lowest first
+	 */
+	private static String formatCurve(Map<Double, Double> areas)
+	{
+		StringBuilder text = new StringBuilder();
+		for(Map.Entry<Double, Double> entry : areas.entrySet())
+		{
+			if(text.length() > 0)
+			{
+				text.append(';');
+			}
+			text.append(entry.getKey()).append('=').append(entry.getValue());
+		}
+		return text.toString();
+	}
+
+	/**
+	 * The state of one client. It is only touched by the selector thread, except that a
+	 * worker fills in the answers of a busy connection before handing it back through the
+	 * queue of answered connections.
+	 */
+	private static final class Connection
+	{
+		final SocketChannel channel;
+		final ByteBuffer in = ByteBuffer.allocate(MAX_LINE);
+		final List<String> lines = new ArrayList<String>();
+		SelectionKey key;
+		List<String> requests;
+		ByteBuffer out;
+		boolean busy;
+		boolean eof;
+
+		Connection(SocketChannel channel)
+		{
+			this.channel = channel;
+		}
+
+		/**
+		 * Moves every complete line that has been read into the waiting lines
+		 * 
+		 * @return False if the buffer is full without holding a line break; else, true
+		 */
+		boolean splitLines()
+		{
+			byte[] bytes = in.array();
+			int start = 0;
+			for(int i = 0; i < in.position(); i++)
+			{
+				if(bytes[i] == '\n')
+				{
+					int end = (i > start && bytes[i-1] == '\r' ? i - 1 : i);
+					lines.add(new String(bytes, start, end - start, UTF8));
+					start = i + 1;
+				}
+			}
+			in.flip();
+			in.position(start);
+			in.compact();
+			return in.hasRemaining();
+		}
+
+		/**
+		 * Moves what is left after the last line break into the waiting lines, once the
+		 * client has stopped sending
+		 */
+		void lastLine()
+		{
+			if(in.position() > 0)
+			{
+				lines.add(new String(in.array(), 0, in.position(), UTF8));
+				in.clear();
+			}
+		}
+	}
+
+	/**
+	 * Answers the requests of several connections together and hands each connection its
+	 * answers back
+	 */
+	private final class Batch implements Runnable
+	{
+		private final List<Connection> connections;
+		private final Selector listening;
+
+		Batch(List<Connection> connections, Selector listening)
+		{
+			this.connections = connections;
+			this.listening = listening;
+		}
+
+		@Override
+		public void run()
+		{
+			List<String> requests = new ArrayList<String>();
+			for(Connection connection : connections)
+			{
+				requests.addAll(connection.requests);
+			}
+			List<String> answers = answer(requests);
+			int next = 0;
+			for(Connection connection : connections)
+			{
+				StringBuilder text = new StringBuilder();
+				for(int i = 0; i < connection.requests.size(); i++)
+				{
+					text.append(answers.get(next++)).append('\n');
+				}
+				connection.requests = null;
+				connection.out = UTF8.encode(text.toString());
+				answered.add(connection);
+			}
+			listening.wakeup();
+		}
+	}
+}
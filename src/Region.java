@@ -0,0 +1,88 @@
+public final class Region
+{
+	private final double minX;
+	private final double minY;
+	private final double maxX;
+	private final double maxY;
+
+	/**
+	 * Creates a rectangular area of the floor, with sides along the x and y axes
+	 * 
+	 * @param minX the lowest x of the area
+	 * @param minY the lowest y of the area
+	 * @param maxX the highest x of the area
+	 * @param maxY the highest y of the area
+	 * @throws IllegalArgumentException if the area does not have positive length on both axes
+	 */
+	public Region(double minX, double minY, double maxX, double maxY) throws IllegalArgumentException
+	{
+		if(!(maxX - minX > 0 && maxY - minY > 0))
+		{
+			throw new IllegalArgumentException("Region must have positive length.");
+		}
+		this.minX = minX;
+		this.minY = minY;
+		this.maxX = maxX;
+		this.maxY = maxY;
+	}
+
+	/**
+	 * @return the lowest x of the area
+	 */
+	public double getMinX()
+	{
+		return minX;
+	}
+
+	/**
+	 * @return the lowest y of the area
+	 */
+	public double getMinY()
+	{
+		return minY;
+	}
+
+	/**
+	 * @return the highest x of the area
+	 */
+	public double getMaxX()
+	{
+		return maxX;
+	}
+
+	/**
+	 * @return the highest y of the area
+	 */
+	public double getMaxY()
+	{
+		return maxY;
+	}
+
+	/**
+	 * Checks if a box overlaps the area by more than an edge
+	 * 
+	 * @param x0 the lowest x of the box
+	 * @param y0 the lowest y of the box
+	 * @param x1 the highest x of the box
+	 * @param y1 the highest y of the box
+	 * @return True if the box and the area share a positive area; else, false
+	 */
+	boolean overlaps(double x0, double y0, double x1, double y1)
+	{
+		return (x0 < maxX && x1 > minX && y0 < maxY && y1 > minY);
+	}
+
+	/**
+	 * @param x0 the lowest x of a box
+	 * @param y0 the lowest y of the box
+	 * @param x1 the highest x of the box
+	 * @param y1 the highest y of the box
+	 * @return the area the box shares with this area, or 0 if they do not overlap
+	 */
+	double overlap(double x0, double y0, double x1, double y1)
+	{
+		double width = Math.min(x1, maxX) - Math.max(x0, minX);
+		double depth = Math.min(y1, maxY) - Math.max(y0, minY);
+		return (width > 0 && depth > 0 ? width * depth : 0.0);
+	}
+}
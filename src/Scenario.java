@@ -0,0 +1,446 @@
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public final class Scenario
+{
+	private final WaterSystem base;
+	private final VolumeCurve baseCurve;
+	private final Set<Tank> added = new HashSet<Tank>();
+	private final Set<Tank> removed = new HashSet<Tank>();
+	private double lowestBottom;
+	private double highestTop;
+	private volatile VolumeCurve delta;
+
+	/**
+	 * Creates a variant of a water system that starts out equal to it. Tanks added to or
+	 * removed from the variant are kept as a delta; the base system is never copied or
+	 * changed, so many variants can share it. The base should not change while its
+	 * variants are in use, and is best a snapshot.
+	 * 
+	 * @param init_base the system the variant is layered over
+	 */
+	public Scenario(WaterSystem init_base)
+	{
+		base = init_base;
+		baseCurve = init_base.volumeCurve();
+		delta = null;
+	}
+
+	/**
+	 * @param tank a tank to add to the variant
+	 * @return True if the tank was added; false if it is already in the variant
+	 * @throws IllegalArgumentException if the coordinates of the tank have not been set
+	 */
+	public boolean addTank(Tank tank) throws IllegalArgumentException
+	{
+		if(!tank.coordsSet)
+		{
+			throw new IllegalArgumentException("Tank coordinates must be set before it is added.");
+		}
+		boolean changed;
+		if(removed.contains(tank))
+		{
+			changed = removed.remove(tank);
+		}
+		else
+		{
+			changed = (!inBase(tank) && added.add(tank));
+		}
+		delta = (changed ? null : delta);
+		return changed;
+	}
+
+	/**
+	 * @param tank a tank to take out of the variant
+	 * @return True if the tank was removed; false if it is not in the variant
+	 * @throws UnsupportedOperationException if the base holds no tank objects
+	 */
+	public boolean removeTank(Tank tank) throws UnsupportedOperationException
+	{
+		boolean changed;
+		if(added.contains(tank))
+		{
+			changed = added.remove(tank);
+		}
+		else
+		{
+			changed = (inBase(tank) && removed.add(tank));
+		}
+		delta = (changed ? null : delta);
+		return changed;
+	}
+
+	/**
+	 * Replaces a tank of the variant with a resized one
+	 * 
+	 * @param tank the tank to replace
+	 * @param resized the tank that takes its place
+	 * @return True if the tank was replaced; false if it is not in the variant
+	 * @throws IllegalArgumentException if the coordinates of the resized tank have not been set
+	 * @throws UnsupportedOperationException if the base holds no tank objects
+	 */
+	public boolean resizeTank(Tank tank, Tank resized) throws IllegalArgumentException, UnsupportedOperationException
+	{
+		if(!resized.coordsSet)
+		{
+			throw new IllegalArgumentException("Tank coordinates must be set before it is added.");
+		}
+		if(!removeTank(tank))
+		{
+			return false;
+		}
+		addTank(resized);
+		return true;
+	}
+
+	/**
+	 * @return the number of tanks added to or removed from the base
+	 */
+	public int deltaSize()
+	{
+		return added.size() + removed.size();
+	}
+
+	/**
+	 * @return the volume of the variant when every tank is full
+	 */
+	public double getMaxVolume()
+	{
+		return baseCurve.getMaxVolume() + delta().getMaxVolume();
+	}
+
+	/**
+	 * Finds the volume of the variant at a water level as the volume of the base plus the
+	 * volume of the delta, each read off its own curve in O(log n) and O(log d)
+	 * 
+	 * @param waterHeight The level of the water in the system
+	 * @return Volume of water in the variant at the given water level
+	 * @throws IllegalArgumentException if the height is below the lowest bottom or above the highest top of the variant
+	 */
+	public double heightToVolume(double waterHeight) throws IllegalArgumentException
+	{
+		VolumeCurve change = delta();
+		if(!(waterHeight >= lowestBottom && waterHeight <= highestTop))
+		{
+			throw new IllegalArgumentException("Water height is outside the range of the water system.");
+		}
+		return volumeAt(change, waterHeight);
+	}
+
+	/**
+	 * Finds the level that holds a volume in the variant. The highest break point of the
+	 * base and the highest break point of the delta whose combined volume is not above the
+	 * given one are found by binary search, and the level rises from the higher of the two at
+	 * the combined active base area there.
+	 * 
+	 * @param waterVolume Volume of water in the variant
+	 * @return The level of the water in the variant
+	 * @throws IllegalArgumentException If the given volume is less than zero or greater than the maximum possible volume
+	 */
+	public double volumeToHeight(double waterVolume) throws IllegalArgumentException
+	{
+		VolumeCurve change = delta();
+		if(!(waterVolume > 0 && waterVolume < baseCurve.getMaxVolume() + change.getMaxVolume()))
+		{
+			throw new IllegalArgumentException("Given water volume is negative or more than the maximum capacity of the system");
+		}
+		double from = Double.NEGATIVE_INFINITY;
+		int low = 0;
+		int high = baseCurve.size() - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if(baseCurve.volume(mid) + change.volumeAtAny(baseCurve.breakPoint(mid)) <= waterVolume)
+			{
+				from = Math.max(from, baseCurve.breakPoint(mid));
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		low = 0;
+		high = change.size() - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if(baseCurve.volumeAtAny(change.breakPoint(mid)) + change.volume(mid) <= waterVolume)
+			{
+				from = Math.max(from, change.breakPoint(mid));
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		double area = baseCurve.areaAbove(from) + change.areaAbove(from);
+		if(area <= 0)
+		{
+			return from;
+		}
+		return from + (waterVolume - volumeAt(change, from)) / area;
+	}
+
+	/**
+	 * Given a volume, finds the level to which each tank of the variant is filled. The base
+	 * answers for its tanks at the level of the variant and the delta is applied on top.
+	 * 
+	 * @param waterVolume Volume of water in the variant
+	 * @return Map associating all tanks of the variant to the level that they are filled
+	 * @throws IllegalArgumentException If the given volume is less than zero or greater than the maximum possible volume
+	 * @throws UnsupportedOperationException if the base holds no tank objects
+	 */
+	public Map<Tank, Double> volumeToTankLevel(double waterVolume) throws IllegalArgumentException, UnsupportedOperationException
+	{
+		double waterHeight = volumeToHeight(waterVolume);
+		Map<Tank, Double> levels = base.heightToTankLevel(waterHeight);
+		for(Tank t : removed)
+		{
+			levels.remove(t);
+		}
+		for(Tank t : added)
+		{
+			levels.put(t, Math.max(0.0, Math.min(waterHeight, t.getTop()) - t.getBottom()));
+		}
+		return levels;
+	}
+
+	/**
+	 * Evaluates heightToVolume for many variants at once as fork-join tasks
+	 * 
+	 * @param scenarios the variants to evaluate
+	 * @param waterHeight The level of the water in every variant
+	 * @param pool the pool that runs the tasks
+	 * @return the volume of each variant, in the order of the list
+	 * @throws IllegalArgumentException if the height is below the lowest bottom or above the highest top of a variant
+	 */
+	public static double[] heightToVolume(final List<Scenario> scenarios, final double waterHeight, ForkJoinPool pool) throws IllegalArgumentException
+	{
+		final double[] volumes = new double[scenarios.size()];
+		pool.invoke(new Each(new Evaluation()
+		{
+			@Override
+			void evaluate(int i)
+			{
+				volumes[i] = scenarios.get(i).heightToVolume(waterHeight);
+			}
+		}, 0, scenarios.size()));
+		return volumes;
+	}
+
+	/**
+	 * Evaluates volumeToTankLevel for many variants at once as fork-join tasks
+	 * 
+	 * @param scenarios the variants to evaluate
+	 * @param waterVolume Volume of water in every variant
+	 * @param pool the pool that runs the tasks
+	 * @return the tank levels of each variant, in the order of the list
+	 * @throws IllegalArgumentException If the volume is less than zero or greater than the maximum volume of a variant
+	 * @throws UnsupportedOperationException if a base holds no tank objects
+	 */
+	public static List<Map<Tank, Double>> volumeToTankLevel(final List<Scenario> scenarios, final double waterVolume, ForkJoinPool pool) throws IllegalArgumentException, UnsupportedOperationException
+	{
+		final List<Map<Tank, Double>> levels = new ArrayList<Map<Tank, Double>>(scenarios.size());
+		for(int i = 0; i < scenarios.size(); i++)
+		{
+			levels.add(null);
+		}
+		//Each task sets its own index of the presized list, and joining the tasks publishes them
+		pool.invoke(new Each(new Evaluation()
+		{
+			@Override
+			void evaluate(int i)
+			{
+				levels.set(i, scenarios.get(i).volumeToTankLevel(waterVolume));
+			}
+		}, 0, scenarios.size()));
+		return levels;
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * @param change the curve of the delta
+	 * @param waterHeight any height
+	 * @return the volume of the variant at the height
+	 */
+	private double volumeAt(VolumeCurve change, double waterHeight)
+	{
+		return baseCurve.volumeAtAny(waterHeight) + change.volumeAtAny(waterHeight);
+	}
+
+	/**
+	 * @param tank a tank
+	 * @return True if the tank is in the base system; else, false
+	 * @throws UnsupportedOperationException if the base holds no tank objects
+	 */
+	private boolean inBase(Tank tank) throws UnsupportedOperationException
+	{
+		if(base.system == null)
+		{
+			throw new UnsupportedOperationException("The system was created from columns and holds no tank objects.");
+		}
+		return base.system.contains(tank);
+	}
+
+	/**
+	 * Finds the lowest bottom and the highest top of the variant. The lowest bottom of the
+	 * base is passed over only while every tank there has been removed, so at most one group
+	 * of the base beyond the removed tanks is looked at from each end.
+	 */
+	private void findRange()
+	{
+		double low = Double.POSITIVE_INFINITY;
+		double high = Double.NEGATIVE_INFINITY;
+		for(Tank t : added)
+		{
+			low = Math.min(low, t.getBottom());
+			high = Math.max(high, t.getTop());
+		}
+		if(baseCurve.size() > 0)
+		{
+			low = Math.min(low, firstKept(base.bottomIndex(), true, Double.POSITIVE_INFINITY));
+			high = Math.max(high, firstKept(base.topIndex(), false, Double.NEGATIVE_INFINITY));
+		}
+		lowestBottom = low;
+		highestTop = high;
+	}
+
+	/**
+	 * @param index the bottoms or the tops of the base grouped by height
+	 * @param ascending True to search from the lowest height up; false to search from the highest down
+	 * @param none the value to return if every tank of the base has been removed
+	 * @return the first height of the index, in the order searched, with a tank that has not been removed
+	 */
+	private double firstKept(BreakPointIndex index, boolean ascending, double none)
+	{
+		for(int k = 0; k < index.size(); k++)
+		{
+			int i = (ascending ? k : index.size() - 1 - k);
+			for(int j = 0; j < index.count(i); j++)
+			{
+				if(removed.isEmpty() || !removed.contains(index.tank(i, j)))
+				{
+					return index.key(i);
+				}
+			}
+		}
+		return none;
+	}
+
+	/**
+	 * Builds the volume curve of the delta the first time it is needed after a change. Added
+	 * tanks raise the active base area between their bottom and top and removed tanks lower
+	 * it, so the curve holds only the break points of the delta and its volumes may be
+	 * negative; its size is proportional to the delta, not to the base. The range of the
+	 * variant is found again at the same time.
+	 * 
+	 * @return the signed volume curve of the delta
+	 */
+	private VolumeCurve delta()
+	{
+		VolumeCurve built = delta;
+		if(built != null)
+		{
+			return built;
+		}
+		int events = 2 * (added.size() + removed.size());
+		double[] heights = new double[events];
+		double[] changes = new double[events];
+		int e = 0;
+		for(Tank t : added)
+		{
+			heights[e] = t.getBottom();
+			changes[e++] = t.baseArea();
+			heights[e] = t.getTop();
+			changes[e++] = -t.baseArea();
+		}
+		for(Tank t : removed)
+		{
+			heights[e] = t.getBottom();
+			changes[e++] = -t.baseArea();
+			heights[e] = t.getTop();
+			changes[e++] = t.baseArea();
+		}
+		int[] order = new int[events];
+		for(int i = 0; i < events; i++)
+		{
+			order[i] = i;
+		}
+		TankStore.sortRows(DoubleBuffer.wrap(heights), order, new int[events], 0, events);
+		double[] keys = new double[events];
+		double[] areas = new double[events];
+		CompensatedSum area = new CompensatedSum();
+		int size = 0;
+		for(int i = 0; i < events; i++)
+		{
+			double key = heights[order[i]];
+			if(size == 0 || keys[size-1] != key)
+			{
+				keys[size++] = key;
+			}
+			area.add(changes[order[i]]);
+			areas[size-1] = area.value();
+		}
+		if(size > 0)
+		{
+			//Every event has been undone above the last break point
+			areas[size-1] = 0.0;
+		}
+		built = new VolumeCurve(Arrays.copyOf(keys, size), Arrays.copyOf(areas, size));
+		//The range is written before the curve is published, so readers of the curve see it
+		findRange();
+		delta = built;
+		return built;
+	}
+
+	/**
+	 * An evaluation of one variant, given by its index in the list being evaluated
+	 */
+	private abstract static class Evaluation
+	{
+		abstract void evaluate(int i);
+	}
+
+	/**
+	 * Runs an evaluation for every index of a range, splitting it in halves down to single indexes
+	 */
+	private static final class Each extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+		private final Evaluation evaluation;
+		private final int low;
+		private final int high;
+
+		Each(Evaluation evaluation, int low, int high)
+		{
+			this.evaluation = evaluation;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected void compute()
+		{
+			if(high - low <= 1)
+			{
+				if(low < high)
+				{
+					evaluation.evaluate(low);
+				}
+				return;
+			}
+			int mid = (low + high) >>> 1;
+			invokeAll(new Each(evaluation, low, mid), new Each(evaluation, mid, high));
+		}
+	}
+}
@@ -0,0 +1,256 @@
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+final class SweepLine
+{
+	private final TankStore store;
+	private final int[] byBottom;
+	private final int[] byTop;
+	private final double tolerance;
+
+	/**
+	 * Sorts the bottom and top events of the tanks in a store once so that the break points
+	 * can be swept from the lowest to the highest
+	 *
+	 * @param store the columns of the tanks in the water system
+	 */
+	SweepLine(TankStore store)
+	{
+		this(store, store.rowsByBottom(), store.rowsByTop());
+	}
+
+	/**
+	 * Creates a sweep over rows of a store that are already sorted
+	 *
+	 * @param store the columns of the tanks in the water system
+	 * @param byBottom the rows ordered from the lowest bottom to the highest
+	 * @param byTop the rows ordered from the lowest top to the highest
+	 */
+	SweepLine(TankStore store, int[] byBottom, int[] byTop)
+	{
+		this(store, byBottom, byTop, 0.0);
+	}
+
+	/**
+	 * Creates a sweep over sorted rows that merges break points lying within a tolerance of
+	 * each other. The lowest value of each run becomes the break point and every bottom or top
+	 * up to the tolerance above it is moved onto it.
+	 *
+	 * @param store the columns of the tanks in the water system
+	 * @param byBottom the rows ordered from the lowest bottom to the highest
+	 * @param byTop the rows ordered from the lowest top to the highest
+	 * @param tolerance the largest distance between two values that are merged, or 0 to merge equal values only
+	 */
+	SweepLine(TankStore store, int[] byBottom, int[] byTop, double tolerance)
+	{
+		this.store = store;
+		this.byBottom = byBottom;
+		this.byTop = byTop;
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @return the columns of the tanks being swept
+	 */
+	TankStore store()
+	{
+		return store;
+	}
+
+	/**
+	 * @return the rows ordered from the lowest bottom to the highest
+	 */
+	int[] byBottom()
+	{
+		return byBottom;
+	}
+
+	/**
+	 * @return the rows ordered from the lowest top to the highest
+	 */
+	int[] byTop()
+	{
+		return byTop;
+	}
+
+	/**
+	 * @return a map that associates each break point to its active tanks
+	 * @throws UnsupportedOperationException if the store holds no tank objects
+	 */
+	NavigableMap<Double, Set<Tank>> activeTanks() throws UnsupportedOperationException
+	{
+		NavigableMap<Double, Set<Tank>> actives = new TreeMap<Double, Set<Tank>>();
+		sweep(new double[2 * store.size()], new double[2 * store.size()], actives, null);
+		return actives;
+	}
+
+	/**
+	 * @return an index from each break point to the rows active above it, held in flat arrays
+	 * @throws IllegalStateException if the groups hold more rows than an array can
+	 */
+	BreakPointIndex activeIndex() throws IllegalStateException
+	{
+		ActiveRows collector = new ActiveRows(store.size());
+		double[] heights = new double[2 * store.size()];
+		int size = sweep(heights, new double[2 * store.size()], null, collector);
+		return collector.toIndex(store, Arrays.copyOf(heights, size));
+	}
+
+	/**
+	 * @return the cumulative volume curve of the tanks
+	 */
+	VolumeCurve volumeCurve()
+	{
+		double[] heights = new double[2 * store.size()];
+		double[] areas = new double[2 * store.size()];
+		int size = sweep(heights, areas, null, null);
+		return new VolumeCurve(Arrays.copyOf(heights, size), Arrays.copyOf(areas, size));
+	}
+
+	/**
+	 * Walks the sorted bottom and top events together. At each break point the tanks whose top
+	 * is at that level stop being active and the tanks whose bottom is at that level start being
+	 * active, so the running set and running base area always describe the water just above the
+	 * break point. The base area is a compensated sum, so the rounding error of the additions
+	 * and subtractions does not build up over many tanks.
+	 *
+	 * @param heights array to fill with the break points, at least twice as long as the store
+	 * @param areas array to fill with the active base area at each break point
+	 * @param actives map to fill with the active tanks at each break point, or null
+	 * @param activeRows collector of the active rows at each break point, or null
+	 * @return the number of break points
+	 */
+	private int sweep(double[] heights, double[] areas, NavigableMap<Double, Set<Tank>> actives, ActiveRows activeRows)
+	{
+		Set<Tank> active = new HashSet<Tank>();
+		int activeCount = 0;
+		CompensatedSum baseArea = new CompensatedSum();
+		int breakPoints = 0;
+		int b = 0;
+		int t = 0;
+		while(t < byTop.length)
+		{
+			double breakPoint = store.top(byTop[t]);
+			if(b < byBottom.length && store.bottom(byBottom[b]) < breakPoint)
+			{
+				breakPoint = store.bottom(byBottom[b]);
+			}
+			double limit = breakPoint + tolerance;
+			while(t < byTop.length && store.top(byTop[t]) <= limit)
+			{
+				//A tank whose bottom and top meet at one break point is never active
+				if(store.bottom(byTop[t]) < breakPoint)
+				{
+					if(actives != null)
+					{
+						active.remove(store.tank(byTop[t]));
+					}
+					if(activeRows != null)
+					{
+						activeRows.close(byTop[t]);
+					}
+					baseArea.add(-store.baseArea(byTop[t]));
+					activeCount--;
+				}
+				t++;
+			}
+			while(b < byBottom.length && store.bottom(byBottom[b]) <= limit)
+			{
+				if(store.top(byBottom[b]) > limit)
+				{
+					if(actives != null)
+					{
+						active.add(store.tank(byBottom[b]));
+					}
+					if(activeRows != null)
+					{
+						activeRows.open(byBottom[b]);
+					}
+					baseArea.add(store.baseArea(byBottom[b]));
+					activeCount++;
+				}
+				b++;
+			}
+			if(activeCount == 0)
+			{
+				//Nothing is active, so drop any rounding error left over from the subtractions
+				baseArea.reset();
+			}
+			if(actives != null)
+			{
+				actives.put(breakPoint, new HashSet<Tank>(active));
+			}
+			if(activeRows != null)
+			{
+				activeRows.mark();
+			}
+			heights[breakPoints] = breakPoint;
+			areas[breakPoints] = baseArea.value();
+			breakPoints++;
+		}
+		return breakPoints;
+	}
+
+	/**
+	 * Keeps the active rows in an array with the position of every row, so a row is added or
+	 * removed in constant time, and copies them out into one group per break point
+	 */
+	private static final class ActiveRows
+	{
+		private final int[] active;
+		private final int[] positions;
+		private int count;
+		private int[] offsets;
+		private int[] rows;
+		private int groups;
+		private int total;
+
+		ActiveRows(int size)
+		{
+			active = new int[size];
+			positions = new int[size];
+			count = 0;
+			offsets = new int[2 * size + 1];
+			rows = new int[Math.max(16, size)];
+			groups = 0;
+			total = 0;
+		}
+
+		void open(int row)
+		{
+			positions[row] = count;
+			active[count++] = row;
+		}
+
+		void close(int row)
+		{
+			int last = active[--count];
+			active[positions[row]] = last;
+			positions[last] = positions[row];
+		}
+
+		void mark()
+		{
+			if(total + count < 0 || total + count > Integer.MAX_VALUE - 8)
+			{
+				throw new IllegalStateException("Active groups hold more rows than an array can.");
+			}
+			if(total + count > rows.length)
+			{
+				rows = Arrays.copyOf(rows, (int)Math.min(Integer.MAX_VALUE - 8, Math.max(total + count, 2L * rows.length)));
+			}
+			offsets[groups++] = total;
+			System.arraycopy(active, 0, rows, total, count);
+			total += count;
+		}
+
+		BreakPointIndex toIndex(TankStore store, double[] keys)
+		{
+			offsets[groups] = total;
+			return new BreakPointIndex(store, keys, Arrays.copyOf(offsets, groups + 1), Arrays.copyOf(rows, total));
+		}
+	}
+}
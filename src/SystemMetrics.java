@@ -0,0 +1,74 @@
+public interface SystemMetrics
+{
+	/**
+	 * Metrics that record nothing. Its start never reads the clock, so a system left with
+	 * these metrics pays only for two calls to empty methods per query.
+	 */
+	SystemMetrics NONE = new SystemMetrics()
+	{
+		@Override
+		public long start()
+		{
+			return 0L;
+		}
+
+		@Override
+		public void record(Query query, long start, long tanksScanned, long collectionsBuilt)
+		{
+		}
+	};
+
+	/**
+	 * Called when a query begins
+	 * 
+	 * @return the time the query began in nanoseconds, or any value if timing is not recorded
+	 */
+	long start();
+
+	/**
+	 * Called when a query returns
+	 * 
+	 * @param query the query that returned
+	 * @param start the value start gave when the query began
+	 * @param tanksScanned number of tanks the query looked at one by one
+	 * @param collectionsBuilt number of maps and sets the query created
+	 */
+	void record(Query query, long start, long tanksScanned, long collectionsBuilt);
+
+	/**
+	 * The queries of a water system that are measured
+	 */
+	enum Query
+	{
+		TANKS_BY_BOTTOM("tanksByBottom"),
+		TANKS_BY_TOP("tanksByTop"),
+		ACTIVE_TANKS("activeTanks"),
+		ACTIVE_BASE_AREA("activeBaseArea"),
+		HEIGHT_TO_TANK_LEVEL("heightToTankLevel"),
+		HEIGHT_TO_LEVELS("heightToLevels"),
+		HEIGHT_TO_VOLUME("heightToVolume"),
+		VOLUME_TO_HEIGHT("volumeToHeight"),
+		VOLUME_TO_TANK_LEVEL("volumeToTankLevel"),
+		HEIGHTS_TO_VOLUMES("heightsToVolumes"),
+		VOLUMES_TO_HEIGHTS("volumesToHeights"),
+		TANKS_IN_REGION("tanksInRegion"),
+		REGION_HEIGHT_TO_VOLUME("heightToVolume(region)"),
+		REGION_ACTIVE_BASE_AREA("activeBaseArea(region)"),
+		CROSSINGS("crossingsBetweenHeights");
+
+		private final String method;
+
+		private Query(String method)
+		{
+			this.method = method;
+		}
+
+		/**
+		 * @return the name of the method of WaterSystem that runs the query
+		 */
+		public String method()
+		{
+			return method;
+		}
+	}
+}
@@ -1,10 +1,12 @@
-import java.util.Arrays;
-
 public class Tank
 {
 	private double[] bottomLeft;
 	private double[] topRight;
 	boolean coordsSet;
+	private double baseArea;
+	private double height;
+	private double volume;
+	private int hash;
 	
 	/**
 	 * Sole constructor that creates a tank defined by two arrays that act as coordinates
@@ -15,11 +17,14 @@ public class Tank
 		bottomLeft = new double[] {0.0,0.0,0.0};
 		topRight = new double[] {0.0,0.0,0.0};
 		coordsSet = false;
+		cacheGeometry();
 	}
 	
 	/**
 	 * Defines the locations of the bottom left and top right corners of the tank to give
 	 * location and dimensions to the space. The coordinates must be only 3 points each.
+	 * The arrays are copied, so changing them afterwards does not move the tank, and the
+	 * base area, height, volume and hash code of the tank are worked out once here.
 	 * 
 	 * @param bL The bottom left corner's set of coordinates
 	 * @param tR The top right corner's set of coordinates
@@ -38,10 +43,55 @@ public class Tank
 		}
 		if(validCoords)
 		{
-			bottomLeft = bL;
-			topRight = tR;
+			bottomLeft = bL.clone();
+			topRight = tR.clone();
 			coordsSet = true;
+			cacheGeometry();
+		}
+	}
+	
+	/**
+	 * Creates a new tank with its own copy of the coordinates of this tank
+	 * 
+	 * @return a tank equal to this one that shares no arrays with it
+	 */
+	public Tank copy()
+	{
+		Tank copy = new Tank();
+		if(coordsSet)
+		{
+			copy.setCoordinates(bottomLeft, topRight);
 		}
+		return copy;
+	}
+	
+	/**
+	 * @return a copy of the coordinates of the bottom left corner of the tank
+	 */
+	public double[] getBottomLeft()
+	{
+		return bottomLeft.clone();
+	}
+	
+	/**
+	 * @return a copy of the coordinates of the top right corner of the tank
+	 */
+	public double[] getTopRight()
+	{
+		return topRight.clone();
+	}
+	
+	/**
+	 * Copies the corners of the tank into arrays given by the caller, so they can be read
+	 * without the arrays that getBottomLeft and getTopRight create
+	 * 
+	 * @param bL array of length 3 to fill with the bottom left corner
+	 * @param tR array of length 3 to fill with the top right corner
+	 */
+	void copyCorners(double[] bL, double[] tR)
+	{
+		System.arraycopy(bottomLeft, 0, bL, 0, 3);
+		System.arraycopy(topRight, 0, tR, 0, 3);
 	}
 	
 	/**
@@ -61,38 +111,41 @@ public class Tank
 	}
 	
 	/**
-	 * Calculates the area of the base of a tank by subtracting two pairs of points and
-	 * multiplying them together
+	 * Returns the area of the base of a tank, found when the coordinates were set by
+	 * subtracting two pairs of points and multiplying them together
 	 * 
 	 * @return the area of the base
 	 */
 	public double baseArea()
 	{
-		return (Math.abs((topRight[1]-bottomLeft[1])*(topRight[0]-bottomLeft[0])));
+		return baseArea;
 	}
 	
 	/**
-	 * Finds the height of a tank by taking the difference between the top and bottom
+	 * Returns the height of a tank, found when the coordinates were set by taking the
+	 * difference between the top and bottom
 	 * 
 	 * @return Height of a tank
 	 */
 	public double getHeight()
 	{
-		return (Math.abs(topRight[2]-bottomLeft[2]));
+		return height;
 	}
 	
 	/**
-	 * Finds the volume of a tank by taking the height of the tank multiplied by the base area
+	 * Returns the volume of a tank, found when the coordinates were set by taking the height
+	 * of the tank multiplied by the base area
 	 * 
 	 * @return Volume of a tank
 	 */
 	public double getVolume()
 	{
-		return (Math.abs(baseArea() * getHeight()));
+		return volume;
 	}
 
 	/**
-	 * Checks if two tanks are equal
+	 * Checks if two tanks are equal. The cached hash codes are compared first so that most
+	 * unequal tanks are told apart without looking at their coordinates.
 	 * 
 	 * @param tank Tank to be compared to
 	 * @return True if the tanks are equal; else, false
@@ -100,39 +153,93 @@ public class Tank
 	@Override
 	public boolean equals(Object tank)
 	{
-		Tank t = (Tank)tank;
-		boolean retVal = false;
-		if(Arrays.equals(this.bottomLeft, t.bottomLeft) && Arrays.equals(this.topRight, t.topRight) && (this.coordsSet == t.coordsSet))
+		if(this == tank)
 		{
-			retVal = true;
+			return true;
 		}
-		return retVal;
+		if(!(tank instanceof Tank))
+		{
+			return false;
+		}
+		Tank t = (Tank)tank;
+		return (hash == t.hash && coordsSet == t.coordsSet && sameCoords(bottomLeft, t.bottomLeft) && sameCoords(topRight, t.topRight));
 	}
 	
 	/**
-	 * Finds the hash code of a tank
+	 * Returns the hash code of a tank, found from its coordinates when they were set
 	 * 
 	 * @return hash code of tank
 	 */
 	@Override
 	public int hashCode()
 	{
-		double[] concatArray = new double[6];
-		System.arraycopy(bottomLeft, 0, concatArray, 0, bottomLeft.length);
-		System.arraycopy(topRight, 0, concatArray, bottomLeft.length, topRight.length);
-		return Arrays.hashCode(concatArray);
+		return hash;
+	}
+	
+	/**
+	 * Works out the base area, height, volume and hash code of the tank from its coordinates.
+	 * The hash code is the one Arrays.hashCode gives for the six coordinates in a row.
+	 */
+	private void cacheGeometry()
+	{
+		baseArea = Math.abs((topRight[1]-bottomLeft[1])*(topRight[0]-bottomLeft[0]));
+		height = Math.abs(topRight[2]-bottomLeft[2]);
+		volume = Math.abs(baseArea * height);
+		int result = 1;
+		for(int i = 0; i < 3; i++)
+		{
+			result = 31 * result + hashOf(bottomLeft[i]);
+		}
+		for(int i = 0; i < 3; i++)
+		{
+			result = 31 * result + hashOf(topRight[i]);
+		}
+		hash = result;
+	}
+	
+	/**
+	 * @param value a coordinate
+	 * @return the hash code of the coordinate, as Double.hashCode gives it
+	 */
+	private static int hashOf(double value)
+	{
+		long bits = Double.doubleToLongBits(value);
+		return (int)(bits ^ (bits >>> 32));
 	}
 	
 	/**
-	 * Checks to see if a pair of 3d coordinates have positive length
+	 * Compares two corners coordinate by coordinate the way Arrays.equals does
+	 * 
+	 * @param a a corner of one tank
+	 * @param b the same corner of another tank
+	 * @return True if every coordinate is equal; else, false
+	 */
+	private static boolean sameCoords(double[] a, double[] b)
+	{
+		return (Double.doubleToLongBits(a[0]) == Double.doubleToLongBits(b[0])
+				&& Double.doubleToLongBits(a[1]) == Double.doubleToLongBits(b[1])
+				&& Double.doubleToLongBits(a[2]) == Double.doubleToLongBits(b[2]));
+	}
+	
+	/**
+	 * Checks that a pair of corners are three points each with positive length along every
+	 * axis. setCoordinates runs the same check, and callers that store the corners without
+	 * creating a tank run it directly.
 	 * 
 	 * @param bL Bottom left coordinates
 	 * @param tR Top right coordinates
-	 * @return True if positive, false if negative
+	 * @throws IllegalArgumentException if the coordinates are not three points with positive length
 	 */
-	private boolean coordHasPosLength(double[] bL, double[] tR)
+	static void checkCorners(double[] bL, double[] tR) throws IllegalArgumentException
 	{
-		return (tR[0]-bL[0]>0 && tR[1]-bL[1]>0 && tR[2]-bL[2]>0);
+		if(bL.length != 3 || tR.length != 3)
+		{
+			throw new IllegalArgumentException("Coordinate arrays must have length 3.");
+		}
+		if(!(tR[0]-bL[0]>0 && tR[1]-bL[1]>0 && tR[2]-bL[2]>0))
+		{
+			throw new IllegalArgumentException("Coordinates must have positive length.");
+		}
 	}
 	
 	/**
@@ -154,22 +261,7 @@ public class Tank
 		{
 			throw new IllegalArgumentException("Coordinates may only be set once.");
 		}
-		if(coordHasPosLength(bL, tR))
-		{
-			retVal = true;
-		}
-		else
-		{
-			throw new IllegalArgumentException("Coordinates must have positive length.");
-		}
-		if(bL.length == 3 && tR.length == 3)
-		{
-			retVal = true;
-		}
-		else
-		{
-			throw new IllegalArgumentException("Coordinate arrays must have length 3.");
-		}
+		checkCorners(bL, tR);
 		return retVal;
 	}
 }
\ No newline at end of file
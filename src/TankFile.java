@@ -0,0 +1,260 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashSet;
+import java.util.Set;
+
+public final class TankFile
+{
+	/** "TANK" in ASCII */
+	private static final int MAGIC = 0x54414E4B;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 16;
+	private static final int TANK_COLUMNS = 7;
+	private static final int CURVE_COLUMNS = 3;
+	private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	/**
+	 * Reading and writing tank files is done through the static methods only
+	 */
+	private TankFile()
+	{
+	}
+
+	/**
+	 * Writes a water system to a binary tank file. After a 16 byte header holding the magic
+	 * number, the format version, the number of tanks and the number of break points, the
+	 * file holds little-endian double columns: the x, y and z of the bottom left corners, the
+	 * x, y and z of the top right corners and the base areas of the tanks, then the heights,
+	 * cumulative volumes and active base areas of the volume curve. The file is written next
+	 * to the target under a temporary name and then renamed over it, so a system loaded from
+	 * the target keeps reading the old columns while they are copied and can be written back
+	 * in place.
+	 * 
+	 * @param system the water system to write
+	 * @param file the file to create or replace
+	 * @throws IOException if the file cannot be written
+	 * @throws UnsupportedOperationException if the system holds neither tank objects nor corner columns
+	 */
+	public static void write(WaterSystem system, File file) throws IOException, UnsupportedOperationException
+	{
+		TankStore store = system.tankStore();
+		if(!store.hasCorners())
+		{
+			//Checked before the file is opened, so an existing file is not left cut short
+			throw new UnsupportedOperationException("The system was created from columns and holds no tank corners.");
+		}
+		VolumeCurve curve = system.volumeCurve();
+		int tanks = store.size();
+		int breakPoints = curve.size();
+		File target = file.getAbsoluteFile();
+		File temp = File.createTempFile(target.getName(), ".tmp", target.getParentFile());
+		boolean written = false;
+		try
+		{
+			writeColumns(store, curve, temp, tanks, breakPoints);
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			written = true;
+		}
+		finally
+		{
+			if(!written)
+			{
+				temp.delete();
+			}
+		}
+	}
+
+	/**
+	 * Maps a tank file and returns a column-only water system that answers its queries
+	 * straight from the mapped columns. Nothing is copied onto the heap, so loading takes
+	 * the same time however many tanks the file holds. The corner columns are mapped too, so
+	 * the footprints of the tanks can be searched by region.
+	 * 
+	 * @param file the tank file to load
+	 * @return a water system over the mapped file
+	 * @throws IOException if the file cannot be read or is not a tank file of this version
+	 */
+	public static WaterSystem load(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			int[] counts = readHeader(channel);
+			int tanks = counts[0];
+			int breakPoints = counts[1];
+			DoubleBuffer[] corners = new DoubleBuffer[6];
+			for(int c = 0; c < corners.length; c++)
+			{
+				corners[c] = map(channel, FileChannel.MapMode.READ_ONLY, tankColumnOffset(c, tanks), tanks);
+			}
+			DoubleBuffer baseAreas = map(channel, FileChannel.MapMode.READ_ONLY, tankColumnOffset(6, tanks), tanks);
+			long curveOffset = tankColumnOffset(TANK_COLUMNS, tanks);
+			DoubleBuffer heights = map(channel, FileChannel.MapMode.READ_ONLY, curveOffset, breakPoints);
+			DoubleBuffer volumes = map(channel, FileChannel.MapMode.READ_ONLY, curveOffset + 8L * breakPoints, breakPoints);
+			DoubleBuffer areas = map(channel, FileChannel.MapMode.READ_ONLY, curveOffset + 16L * breakPoints, breakPoints);
+			return new WaterSystem(new TankStore(corners, baseAreas), new VolumeCurve(heights, volumes, areas));
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads the corner columns of a tank file back into tank objects
+	 * 
+	 * @param file the tank file to read
+	 * @return the tanks stored in the file
+	 * @throws IOException if the file cannot be read or is not a tank file of this version
+	 */
+	public static Set<Tank> readTanks(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			int tanks = readHeader(channel)[0];
+			DoubleBuffer[] columns = new DoubleBuffer[6];
+			for(int c = 0; c < columns.length; c++)
+			{
+				columns[c] = map(channel, FileChannel.MapMode.READ_ONLY, tankColumnOffset(c, tanks), tanks);
+			}
+			Set<Tank> read = new HashSet<Tank>();
+			for(int row = 0; row < tanks; row++)
+			{
+				double[] bL = {columns[0].get(row), columns[1].get(row), columns[2].get(row)};
+				double[] tR = {columns[3].get(row), columns[4].get(row), columns[5].get(row)};
+				Tank t = new Tank();
+				t.setCoordinates(bL, tR);
+				read.add(t);
+			}
+			return read;
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * Writes the header and the columns of a tank file to a new, empty file
+	 * 
+	 * @param store the tanks to write
+	 * @param curve the volume curve to write
+	 * @param file the file to fill
+	 * @param tanks number of tanks in the store
+	 * @param breakPoints number of break points in the curve
+	 * @throws IOException if the file cannot be written
+	 */
+	private static void writeColumns(TankStore store, VolumeCurve curve, File file, int tanks, int breakPoints) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			raf.setLength(HEADER_BYTES + 8L * (TANK_COLUMNS * (long)tanks + CURVE_COLUMNS * (long)breakPoints));
+			ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+			header.putInt(MAGIC).putInt(VERSION).putInt(tanks).putInt(breakPoints);
+			header.flip();
+			channel.write(header, 0);
+
+			DoubleBuffer[] columns = new DoubleBuffer[TANK_COLUMNS];
+			for(int c = 0; c < TANK_COLUMNS; c++)
+			{
+				columns[c] = map(channel, FileChannel.MapMode.READ_WRITE, tankColumnOffset(c, tanks), tanks);
+			}
+			double[] bL = new double[3];
+			double[] tR = new double[3];
+			for(int row = 0; row < tanks; row++)
+			{
+				store.corners(row, bL, tR);
+				columns[0].put(row, bL[0]);
+				columns[1].put(row, bL[1]);
+				columns[2].put(row, bL[2]);
+				columns[3].put(row, tR[0]);
+				columns[4].put(row, tR[1]);
+				columns[5].put(row, tR[2]);
+				columns[6].put(row, store.baseArea(row));
+			}
+			long curveOffset = tankColumnOffset(TANK_COLUMNS, tanks);
+			map(channel, FileChannel.MapMode.READ_WRITE, curveOffset, breakPoints).put(curve.heightColumn());
+			map(channel, FileChannel.MapMode.READ_WRITE, curveOffset + 8L * breakPoints, breakPoints).put(curve.volumeColumn());
+			map(channel, FileChannel.MapMode.READ_WRITE, curveOffset + 16L * breakPoints, breakPoints).put(curve.areaColumn());
+		}
+		finally
+		{
+			raf.close();
+		}
+	}
+
+	/**
+	 * Reads and checks the header of a tank file
+	 * 
+	 * @param channel channel of the file
+	 * @return the number of tanks and the number of break points in the file
+	 * @throws IOException if the file is not a tank file of this version or is cut short
+	 */
+	private static int[] readHeader(FileChannel channel) throws IOException
+	{
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+		while(header.hasRemaining())
+		{
+			if(channel.read(header, header.position()) < 0)
+			{
+				throw new IOException("File is too short to be a tank file.");
+			}
+		}
+		header.flip();
+		if(header.getInt() != MAGIC)
+		{
+			throw new IOException("File is not a tank file.");
+		}
+		int version = header.getInt();
+		if(version != VERSION)
+		{
+			throw new IOException("Tank file version " + version + " is not supported.");
+		}
+		int tanks = header.getInt();
+		int breakPoints = header.getInt();
+		if(tanks < 0 || breakPoints < 0 || channel.size() != HEADER_BYTES + 8L * (TANK_COLUMNS * (long)tanks + CURVE_COLUMNS * (long)breakPoints))
+		{
+			throw new IOException("Tank file size does not match its header.");
+		}
+		return new int[] {tanks, breakPoints};
+	}
+
+	/**
+	 * @param column index of a tank column
+	 * @param tanks number of tanks in the file
+	 * @return byte offset of the column in the file
+	 */
+	private static long tankColumnOffset(int column, int tanks)
+	{
+		return HEADER_BYTES + 8L * column * tanks;
+	}
+
+	/**
+	 * Maps a column of doubles in a file
+	 * 
+	 * @param channel channel of the file
+	 * @param mode how the column is mapped
+	 * @param offset byte offset of the column
+	 * @param length number of doubles in the column
+	 * @return the mapped column
+	 * @throws IOException if the column cannot be mapped
+	 */
+	private static DoubleBuffer map(FileChannel channel, FileChannel.MapMode mode, long offset, int length) throws IOException
+	{
+		return channel.map(mode, offset, 8L * length).order(ORDER).asDoubleBuffer();
+	}
+}
@@ -0,0 +1,353 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+
+public final class TankImporter
+{
+	/** Lines longer than this are rejected rather than buffered */
+	static final int MAX_LINE = 4096;
+	private static final int BUFFER_BYTES = 1 << 16;
+	private static final int FIELDS = 6;
+	/** Significant digits that fit in a long below 2^53, so they convert to a double exactly */
+	private static final int EXACT_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+	private static final Charset ASCII = Charset.forName("US-ASCII");
+
+	private final WaterSystem.Builder builder;
+	private final ImportListener listener;
+	private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_BYTES);
+	private final byte[] line = new byte[MAX_LINE];
+	private final int[] fieldStarts = new int[FIELDS + 1];
+	private final int[] fieldEnds = new int[FIELDS + 1];
+	private final double[] bottomLeft = new double[3];
+	private final double[] topRight = new double[3];
+	private long lines;
+	private long imported;
+	private long rejected;
+
+	/**
+	 * Creates an importer that reads tanks from text, one tank a line. A line holds the x, y
+	 * and z of the bottom left corner and then of the top right corner, separated by commas,
+	 * semicolons, spaces or tabs. Blank lines, lines starting with '#' and a first line that
+	 * does not start with a number are skipped.
+	 * 
+	 * @param builder receives every valid tank
+	 * @param listener receives every invalid row
+	 */
+	public TankImporter(WaterSystem.Builder builder, ImportListener listener)
+	{
+		this.builder = builder;
+		this.listener = listener;
+	}
+
+	/**
+	 * @param file the text file to import
+	 * @return the number of tanks imported from the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public long importFile(File file) throws IOException
+	{
+		FileInputStream in = new FileInputStream(file);
+		try
+		{
+			return importFrom(in.getChannel());
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads a channel to its end through a fixed buffer. Only one line is held at a time and
+	 * the coordinates are parsed straight from its bytes, so the memory used does not depend
+	 * on the size of the input. Each row is checked as setCoordinates checks it, and rows
+	 * that fail are reported to the listener instead of ending the import.
+	 * 
+	 * @param channel the text to import
+	 * @return the number of tanks imported from the channel
+	 * @throws IOException if the channel cannot be read
+	 */
+	public long importFrom(ReadableByteChannel channel) throws IOException
+	{
+		long before = imported;
+		long firstLine = lines + 1;
+		int length = 0;
+		boolean overlong = false;
+		buffer.clear();
+		while(channel.read(buffer) >= 0)
+		{
+			buffer.flip();
+			while(buffer.hasRemaining())
+			{
+				byte b = buffer.get();
+				if(b == '\n')
+				{
+					lines++;
+					row(length, overlong, lines == firstLine);
+					length = 0;
+					overlong = false;
+				}
+				else if(length < MAX_LINE)
+				{
+					line[length++] = b;
+				}
+				else
+				{
+					overlong = true;
+				}
+			}
+			buffer.clear();
+		}
+		if(length > 0 || overlong)
+		{
+			lines++;
+			row(length, overlong, lines == firstLine);
+		}
+		return imported - before;
+	}
+
+	/**
+	 * @return the number of lines read so far
+	 */
+	public long getLines()
+	{
+		return lines;
+	}
+
+	/**
+	 * @return the number of tanks imported so far
+	 */
+	public long getImported()
+	{
+		return imported;
+	}
+
+	/**
+	 * @return the number of rows rejected so far
+	 */
+	public long getRejected()
+	{
+		return rejected;
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * Splits the buffered line into fields, parses them and passes the tank to the builder
+	 * 
+	 * @param length number of bytes in the line
+	 * @param overlong True if bytes past the longest line were dropped
+	 * @param first True if this is the first line of the input
+	 */
+	private void row(int length, boolean overlong, boolean first)
+	{
+		if(overlong)
+		{
+			reject("Line is longer than " + MAX_LINE + " bytes.");
+			return;
+		}
+		if(length > 0 && line[length-1] == '\r')
+		{
+			length--;
+		}
+		int fields = 0;
+		int i = 0;
+		while(i < length)
+		{
+			while(i < length && isSeparator(line[i]))
+			{
+				i++;
+			}
+			if(i == length)
+			{
+				break;
+			}
+			if(fields == 0 && line[i] == '#')
+			{
+				return;
+			}
+			int start = i;
+			while(i < length && !isSeparator(line[i]))
+			{
+				i++;
+			}
+			if(fields <= FIELDS)
+			{
+				fieldStarts[fields] = start;
+				fieldEnds[fields] = i;
+			}
+			fields++;
+		}
+		if(fields == 0)
+		{
+			return;
+		}
+		if(first && !startsNumber(line[fieldStarts[0]]))
+		{
+			//A header row
+			return;
+		}
+		if(fields != FIELDS)
+		{
+			reject("Expected " + FIELDS + " coordinates but found " + fields + ".");
+			return;
+		}
+		try
+		{
+			for(int f = 0; f < 3; f++)
+			{
+				bottomLeft[f] = parse(fieldStarts[f], fieldEnds[f]);
+				topRight[f] = parse(fieldStarts[f+3], fieldEnds[f+3]);
+			}
+			builder.add(bottomLeft, topRight);
+			imported++;
+		}
+		catch(NumberFormatException ex)
+		{
+			reject("Coordinate is not a number.");
+		}
+		catch(IllegalArgumentException ex)
+		{
+			reject(ex.getMessage());
+		}
+	}
+
+	/**
+	 * @param reason why the current line was rejected
+	 */
+	private void reject(String reason)
+	{
+		rejected++;
+		listener.invalidRow(lines, reason);
+	}
+
+	/**
+	 * Parses a decimal number from the line. Numbers of at most fifteen significant digits
+	 * and a power of ten no larger than 22 are exact as a long and a double, so one multiply
+	 * or divide rounds them correctly; anything else goes to Double.parseDouble.
+	 * 
+	 * @param start index of the first byte of the number
+	 * @param end index after the last byte of the number
+	 * @return the value of the number
+	 * @throws NumberFormatException if the bytes are not a number
+	 */
+	private double parse(int start, int end) throws NumberFormatException
+	{
+		int i = start;
+		boolean negative = false;
+		if(i < end && (line[i] == '-' || line[i] == '+'))
+		{
+			negative = (line[i] == '-');
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int scale = 0;
+		boolean seen = false;
+		while(i < end && line[i] >= '0' && line[i] <= '9')
+		{
+			if(mantissa != 0 || line[i] != '0')
+			{
+				digits++;
+			}
+			mantissa = mantissa * 10 + (line[i] - '0');
+			seen = true;
+			i++;
+		}
+		if(i < end && line[i] == '.')
+		{
+			i++;
+			while(i < end && line[i] >= '0' && line[i] <= '9')
+			{
+				if(mantissa != 0 || line[i] != '0')
+				{
+					digits++;
+				}
+				mantissa = mantissa * 10 + (line[i] - '0');
+				scale--;
+				seen = true;
+				i++;
+			}
+		}
+		if(i < end && (line[i] == 'e' || line[i] == 'E') && seen)
+		{
+			i++;
+			boolean negativeExponent = false;
+			if(i < end && (line[i] == '-' || line[i] == '+'))
+			{
+				negativeExponent = (line[i] == '-');
+				i++;
+			}
+			int exponent = 0;
+			boolean exponentSeen = false;
+			while(i < end && line[i] >= '0' && line[i] <= '9' && exponent < 10000)
+			{
+				exponent = exponent * 10 + (line[i] - '0');
+				exponentSeen = true;
+				i++;
+			}
+			if(!exponentSeen)
+			{
+				return slowParse(start, end);
+			}
+			scale += (negativeExponent ? -exponent : exponent);
+		}
+		if(!seen || i != end || digits > EXACT_DIGITS)
+		{
+			return slowParse(start, end);
+		}
+		double value;
+		if(mantissa == 0)
+		{
+			value = 0.0;
+		}
+		else if(scale >= 0 && scale < POWERS_OF_TEN.length)
+		{
+			value = mantissa * POWERS_OF_TEN[scale];
+		}
+		else if(scale < 0 && -scale < POWERS_OF_TEN.length)
+		{
+			value = mantissa / POWERS_OF_TEN[-scale];
+		}
+		else
+		{
+			return slowParse(start, end);
+		}
+		return (negative ? -value : value);
+	}
+
+	/**
+	 * @param start index of the first byte of the number
+	 * @param end index after the last byte of the number
+	 * @return the value of the number as Double.parseDouble reads it
+	 * @throws NumberFormatException if the bytes are not a number
+	 */
+	private double slowParse(int start, int end) throws NumberFormatException
+	{
+		return Double.parseDouble(new String(line, start, end - start, ASCII));
+	}
+
+	/**
+	 * @param b a byte of the line
+	 * @return True if the byte separates two fields; else, false
+	 */
+	private static boolean isSeparator(byte b)
+	{
+		return (b == ',' || b == ';' || b == ' ' || b == '\t' || b == '\r');
+	}
+
+	/**
+	 * @param b the first byte of a field
+	 * @return True if a number can start with the byte; else, false
+	 */
+	private static boolean startsNumber(byte b)
+	{
+		return ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.');
+	}
+}
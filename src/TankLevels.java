@@ -0,0 +1,132 @@
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+public final class TankLevels
+{
+	private final TankStore store;
+	private final IntervalIndex index;
+	private final double waterHeight;
+
+	/**
+	 * Creates a view of the levels of all tanks at a water height. Only the height is stored;
+	 * the level of a tank is worked out from its bottom and top when it is asked for.
+	 *
+	 * @param store the columns of the tanks in the system
+	 * @param index the index used to find the partially filled tanks
+	 * @param waterHeight The level of the water in the system
+	 */
+	TankLevels(TankStore store, IntervalIndex index, double waterHeight)
+	{
+		this.store = store;
+		this.index = index;
+		this.waterHeight = waterHeight;
+	}
+
+	/**
+	 * @return The level of the water in the system
+	 */
+	public double getWaterHeight()
+	{
+		return waterHeight;
+	}
+
+	/**
+	 * Finds the level, as measured from the tank base, to which a tank is filled
+	 *
+	 * @param tank a tank of the system
+	 * @return the level of the water in the tank
+	 */
+	public double levelOf(Tank tank)
+	{
+		return level(tank.getBottom(), tank.getTop());
+	}
+
+	/**
+	 * Finds the level, as measured from the tank base, to which a row of the store is filled
+	 *
+	 * @param row index of a tank in the store of the system
+	 * @return the level of the water in the tank
+	 */
+	public double levelOf(int row)
+	{
+		return level(store.bottom(row), store.top(row));
+	}
+
+	/**
+	 * Lists only the tanks that hold some water but are not full, found through the interval
+	 * index of the system in time proportional to their number
+	 *
+	 * @return an iterator over the partially filled tanks, in order of their bottoms
+	 * @throws UnsupportedOperationException if the system holds no tank objects
+	 */
+	public Iterator<Tank> partiallyFilled() throws UnsupportedOperationException
+	{
+		if(!store.hasTanks())
+		{
+			throw new UnsupportedOperationException("The store was created from columns and holds no tank objects.");
+		}
+		final IntervalIndex.Cursor cursor = index.stab(waterHeight);
+		return new Iterator<Tank>()
+		{
+			@Override
+			public boolean hasNext()
+			{
+				return cursor.hasNext();
+			}
+
+			@Override
+			public Tank next()
+			{
+				if(!cursor.hasNext())
+				{
+					throw new NoSuchElementException();
+				}
+				return store.tank(cursor.nextRow());
+			}
+
+			@Override
+			public void remove()
+			{
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Expands the view into a map with an entry for every tank in the system
+	 *
+	 * @return A map that associates each tank with the level to which the tank is filled
+	 * @throws UnsupportedOperationException if the system holds no tank objects
+	 */
+	public Map<Tank, Double> toMap() throws UnsupportedOperationException
+	{
+		Map<Tank, Double> levels = new HashMap<Tank, Double>();
+		for(int row = 0; row < store.size(); row++)
+		{
+			levels.put(store.tank(row), levelOf(row));
+		}
+		return levels;
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * @param bottom height of the bottom of a tank
+	 * @param top height of the top of a tank
+	 * @return the level of the water in the tank: its height if the water is above it, the water above its bottom if the water is inside it, else zero
+	 */
+	private double level(double bottom, double top)
+	{
+		if(top < waterHeight)
+		{
+			return top - bottom;
+		}
+		else if(bottom < waterHeight)
+		{
+			return waterHeight - bottom;
+		}
+		return 0.0;
+	}
+}
@@ -0,0 +1,287 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public final class TankNetwork
+{
+	private final Tank[] tanks;
+	private final Map<Tank, Integer> ids;
+	private final int[] parent;
+	private final int[] rank;
+	private int count;
+	private volatile List<WaterSystem> components;
+	private volatile int[] componentOfId;
+
+	/**
+	 * Creates a network in which no tanks are connected yet, so every tank is a component of
+	 * its own. Tanks only share a water level once they are joined by pipes.
+	 * 
+	 * @param init_tanks the tanks of the plant
+	 */
+	public TankNetwork(Set<Tank> init_tanks)
+	{
+		tanks = init_tanks.toArray(new Tank[init_tanks.size()]);
+		ids = new HashMap<Tank, Integer>();
+		parent = new int[tanks.length];
+		rank = new int[tanks.length];
+		for(int i = 0; i < tanks.length; i++)
+		{
+			ids.put(tanks[i], i);
+			parent[i] = i;
+		}
+		count = tanks.length;
+	}
+
+	/**
+	 * Joins two tanks with a pipe, so that their components become one water system. The
+	 * components are kept in a union-find forest, so a connection costs nearly constant time.
+	 * 
+	 * @param a a tank of the network
+	 * @param b another tank of the network
+	 * @return True if the pipe joined two components; false if the tanks were already connected
+	 * @throws IllegalArgumentException if either tank is not in the network
+	 */
+	public boolean connect(Tank a, Tank b) throws IllegalArgumentException
+	{
+		int rootA = find(id(a));
+		int rootB = find(id(b));
+		if(rootA == rootB)
+		{
+			return false;
+		}
+		if(rank[rootA] < rank[rootB])
+		{
+			parent[rootA] = rootB;
+		}
+		else if(rank[rootA] > rank[rootB])
+		{
+			parent[rootB] = rootA;
+		}
+		else
+		{
+			parent[rootB] = rootA;
+			rank[rootA]++;
+		}
+		count--;
+		components = null;
+		componentOfId = null;
+		return true;
+	}
+
+	/**
+	 * @param a a tank of the network
+	 * @param b another tank of the network
+	 * @return True if water can flow between the tanks; else, false
+	 * @throws IllegalArgumentException if either tank is not in the network
+	 */
+	public boolean connected(Tank a, Tank b) throws IllegalArgumentException
+	{
+		return find(id(a)) == find(id(b));
+	}
+
+	/**
+	 * @return the number of connected components
+	 */
+	public int componentCount()
+	{
+		return count;
+	}
+
+	/**
+	 * Returns a water system for every connected component, each with its own volume curve.
+	 * The components are ordered by the first of their tanks in the set the network was
+	 * created from, and are built once until the next connection.
+	 * 
+	 * @return the water systems of the components
+	 */
+	public List<WaterSystem> components()
+	{
+		List<WaterSystem> built = components;
+		if(built == null)
+		{
+			int[] componentOf = new int[tanks.length];
+			Map<Integer, Integer> byRoot = new HashMap<Integer, Integer>();
+			List<Set<Tank>> members = new ArrayList<Set<Tank>>();
+			for(int i = 0; i < tanks.length; i++)
+			{
+				int root = find(i);
+				Integer component = byRoot.get(root);
+				if(component == null)
+				{
+					component = members.size();
+					byRoot.put(root, component);
+					members.add(new HashSet<Tank>());
+				}
+				members.get(component).add(tanks[i]);
+				componentOf[i] = component;
+			}
+			List<WaterSystem> systems = new ArrayList<WaterSystem>(members.size());
+			for(Set<Tank> member : members)
+			{
+				systems.add(new WaterSystem(member));
+			}
+			built = Collections.unmodifiableList(systems);
+			componentOfId = componentOf;
+			components = built;
+		}
+		return built;
+	}
+
+	/**
+	 * @param tank a tank of the network
+	 * @return index in components() of the component holding the tank
+	 * @throws IllegalArgumentException if the tank is not in the network
+	 */
+	public int componentIndex(Tank tank) throws IllegalArgumentException
+	{
+		int id = id(tank);
+		int[] componentOf = componentOfId;
+		while(componentOf == null)
+		{
+			components();
+			componentOf = componentOfId;
+		}
+		return componentOf[id];
+	}
+
+	/**
+	 * @param tank a tank of the network
+	 * @return the water system of the component holding the tank
+	 * @throws IllegalArgumentException if the tank is not in the network
+	 */
+	public WaterSystem componentOf(Tank tank) throws IllegalArgumentException
+	{
+		int component = componentIndex(tank);
+		return components().get(component);
+	}
+
+	/**
+	 * Finds the level to which every tank is filled when each component holds its own volume.
+	 * The components share no water, so they are solved independently as fork-join tasks. An
+	 * empty component leaves its tanks at 0 and a full one fills them to their height.
+	 * 
+	 * @param volumes volume of water in each component, in the order of components()
+	 * @param pool the pool that solves the components
+	 * @return Map associating all tanks to the level that they are filled
+	 * @throws IllegalArgumentException if there is not one volume per component, or a volume is negative or more than the capacity of its component
+	 */
+	public Map<Tank, Double> volumesToTankLevel(double[] volumes, ForkJoinPool pool) throws IllegalArgumentException
+	{
+		List<WaterSystem> systems = components();
+		if(volumes.length != systems.size())
+		{
+			throw new IllegalArgumentException("Expected " + systems.size() + " volumes but found " + volumes.length + ".");
+		}
+		for(int i = 0; i < volumes.length; i++)
+		{
+			if(!(volumes[i] >= 0 && volumes[i] <= systems.get(i).volumeCurve().getMaxVolume()))
+			{
+				throw new IllegalArgumentException("Water volume of component " + i + " is negative or more than its capacity");
+			}
+		}
+		if(systems.isEmpty())
+		{
+			return new HashMap<Tank, Double>();
+		}
+		return pool.invoke(new Levels(systems, volumes, 0, systems.size()));
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * @param tank a tank of the network
+	 * @return the index of the tank in the forest
+	 * @throws IllegalArgumentException if the tank is not in the network
+	 */
+	private int id(Tank tank) throws IllegalArgumentException
+	{
+		Integer id = ids.get(tank);
+		if(id == null)
+		{
+			throw new IllegalArgumentException("Tank is not in the network.");
+		}
+		return id;
+	}
+
+	/**
+	 * Finds the root of a tank's tree, halving the path on the way up
+	 * 
+	 * @param id index of a tank in the forest
+	 * @return index of the root of its component
+	 */
+	private int find(int id)
+	{
+		while(parent[id] != id)
+		{
+			parent[id] = parent[parent[id]];
+			id = parent[id];
+		}
+		return id;
+	}
+
+	/**
+	 * Solves a range of components, splitting it in halves until one component is left
+	 */
+	private static final class Levels extends RecursiveTask<Map<Tank, Double>>
+	{
+		private static final long serialVersionUID = 1L;
+		private final List<WaterSystem> systems;
+		private final double[] volumes;
+		private final int low;
+		private final int high;
+
+		Levels(List<WaterSystem> systems, double[] volumes, int low, int high)
+		{
+			this.systems = systems;
+			this.volumes = volumes;
+			this.low = low;
+			this.high = high;
+		}
+
+		@Override
+		protected Map<Tank, Double> compute()
+		{
+			if(high - low == 1)
+			{
+				return solve(systems.get(low), volumes[low]);
+			}
+			int mid = (low + high) >>> 1;
+			Levels left = new Levels(systems, volumes, low, mid);
+			left.fork();
+			Map<Tank, Double> right = new Levels(systems, volumes, mid, high).compute();
+			Map<Tank, Double> levels = left.join();
+			levels.putAll(right);
+			return levels;
+		}
+
+		/**
+		 * @param system the water system of a component
+		 * @param volume volume of water in the component
+		 * @return the level of every tank of the component
+		 */
+		private static Map<Tank, Double> solve(WaterSystem system, double volume)
+		{
+			VolumeCurve curve = system.volumeCurve();
+			double height;
+			if(volume <= 0)
+			{
+				height = curve.heightColumn().get(0);
+			}
+			else if(volume >= curve.getMaxVolume())
+			{
+				height = curve.heightColumn().get(curve.size() - 1);
+			}
+			else
+			{
+				height = curve.heightAt(volume);
+			}
+			return system.heightToTankLevel(height);
+		}
+	}
+}
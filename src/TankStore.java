@@ -0,0 +1,363 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+public final class TankStore
+{
+	private final DoubleBuffer bottoms;
+	private final DoubleBuffer tops;
+	private final DoubleBuffer baseAreas;
+	private final Tank[] tanks;
+	private final DoubleBuffer[] corners;
+	private final int size;
+
+	/**
+	 * Creates a store over three columns of equal length. Row i of every column describes the
+	 * same tank.
+	 *
+	 * @param bottoms column of the bottom heights of the tanks
+	 * @param tops column of the top heights of the tanks
+	 * @param baseAreas column of the base areas of the tanks
+	 * @param tanks the tank objects the rows were loaded from, or null if there are none
+	 */
+	TankStore(DoubleBuffer bottoms, DoubleBuffer tops, DoubleBuffer baseAreas, Tank[] tanks)
+	{
+		this.bottoms = bottoms;
+		this.tops = tops;
+		this.baseAreas = baseAreas;
+		this.tanks = tanks;
+		this.corners = null;
+		this.size = bottoms.limit();
+	}
+
+	/**
+	 * Creates a store over the six corner columns of the tanks, in the order x, y and z of
+	 * the bottom left corners then x, y and z of the top right corners, and a column of base
+	 * areas. The bottoms and tops are read from the z columns, and the footprints of the
+	 * tanks can be read without tank objects.
+	 *
+	 * @param corners the six corner columns, all of equal length
+	 * @param baseAreas column of the base areas of the tanks
+	 */
+	TankStore(DoubleBuffer[] corners, DoubleBuffer baseAreas)
+	{
+		this.bottoms = corners[2];
+		this.tops = corners[5];
+		this.baseAreas = baseAreas;
+		this.tanks = null;
+		this.corners = corners;
+		this.size = baseAreas.limit();
+	}
+
+	/**
+	 * Loads a set of tanks into columns held in plain double arrays on the heap. The tank
+	 * objects are kept so that results keyed by tank can still be produced.
+	 *
+	 * @param tanks the tanks to load
+	 * @return a store holding one row per tank
+	 */
+	public static TankStore load(Collection<Tank> tanks)
+	{
+		Tank[] rows = tanks.toArray(new Tank[tanks.size()]);
+		double[] bottoms = new double[rows.length];
+		double[] tops = new double[rows.length];
+		double[] baseAreas = new double[rows.length];
+		for(int i = 0; i < rows.length; i++)
+		{
+			bottoms[i] = rows[i].getBottom();
+			tops[i] = rows[i].getTop();
+			baseAreas[i] = rows[i].baseArea();
+		}
+		return new TankStore(DoubleBuffer.wrap(bottoms), DoubleBuffer.wrap(tops), DoubleBuffer.wrap(baseAreas), rows);
+	}
+
+	/**
+	 * Loads a set of tanks into columns held in direct buffers outside of the Java heap. The
+	 * tank objects are kept so that results keyed by tank can still be produced.
+	 *
+	 * @param tanks the tanks to load
+	 * @return a store holding one row per tank
+	 */
+	public static TankStore loadDirect(Collection<Tank> tanks)
+	{
+		Tank[] rows = tanks.toArray(new Tank[tanks.size()]);
+		DoubleBuffer bottoms = allocateDirect(rows.length);
+		DoubleBuffer tops = allocateDirect(rows.length);
+		DoubleBuffer baseAreas = allocateDirect(rows.length);
+		for(int i = 0; i < rows.length; i++)
+		{
+			bottoms.put(i, rows[i].getBottom());
+			tops.put(i, rows[i].getTop());
+			baseAreas.put(i, rows[i].baseArea());
+		}
+		return new TankStore(bottoms, tops, baseAreas, rows);
+	}
+
+	/**
+	 * Creates a store straight from primitive columns without any tank objects. Results keyed
+	 * by tank cannot be produced from such a store.
+	 *
+	 * @param bottoms the bottom heights of the tanks
+	 * @param tops the top heights of the tanks
+	 * @param baseAreas the base areas of the tanks
+	 * @return a store holding one row per index of the columns
+	 * @throws IllegalArgumentException if the columns differ in length or a row does not have positive height and base area
+	 */
+	public static TankStore fromColumns(double[] bottoms, double[] tops, double[] baseAreas) throws IllegalArgumentException
+	{
+		if(bottoms.length != tops.length || bottoms.length != baseAreas.length)
+		{
+			throw new IllegalArgumentException("Columns must have the same length.");
+		}
+		for(int i = 0; i < bottoms.length; i++)
+		{
+			if(!(tops[i] - bottoms[i] > 0 && baseAreas[i] > 0))
+			{
+				throw new IllegalArgumentException("Row " + i + " must have positive height and base area.");
+			}
+		}
+		return new TankStore(DoubleBuffer.wrap(bottoms.clone()), DoubleBuffer.wrap(tops.clone()), DoubleBuffer.wrap(baseAreas.clone()), null);
+	}
+
+	/**
+	 * @return the number of tanks in the store
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @param row index of a tank in the store
+	 * @return the height of the bottom of the tank from the ground
+	 */
+	public double bottom(int row)
+	{
+		return bottoms.get(row);
+	}
+
+	/**
+	 * @param row index of a tank in the store
+	 * @return the height of the top of the tank from the ground
+	 */
+	public double top(int row)
+	{
+		return tops.get(row);
+	}
+
+	/**
+	 * @param row index of a tank in the store
+	 * @return the area of the base of the tank
+	 */
+	public double baseArea(int row)
+	{
+		return baseAreas.get(row);
+	}
+
+	/**
+	 * @param row index of a tank in the store
+	 * @return the volume of the tank
+	 */
+	public double volume(int row)
+	{
+		return baseAreas.get(row) * (tops.get(row) - bottoms.get(row));
+	}
+
+	/**
+	 * @return True if the store was loaded from tank objects; else, false
+	 */
+	public boolean hasTanks()
+	{
+		return tanks != null;
+	}
+
+	/**
+	 * @return True if the corners of every row can be read, from the tank objects or from
+	 * corner columns; else, false
+	 */
+	public boolean hasCorners()
+	{
+		return (tanks != null || corners != null);
+	}
+
+	/**
+	 * @return True if the columns of the store are held outside of the Java heap; else, false
+	 */
+	public boolean isDirect()
+	{
+		return bottoms.isDirect();
+	}
+
+	/**
+	 * Copies the corners of a row into arrays given by the caller, so rows can be walked
+	 * without creating tank objects or arrays
+	 *
+	 * @param row index of a tank in the store
+	 * @param bottomLeft array of length 3 to fill with the bottom left corner
+	 * @param topRight array of length 3 to fill with the top right corner
+	 * @throws UnsupportedOperationException if the store holds neither tank objects nor corner columns
+	 */
+	public void corners(int row, double[] bottomLeft, double[] topRight) throws UnsupportedOperationException
+	{
+		if(corners != null)
+		{
+			for(int i = 0; i < 3; i++)
+			{
+				bottomLeft[i] = corners[i].get(row);
+				topRight[i] = corners[i+3].get(row);
+			}
+			return;
+		}
+		tank(row).copyCorners(bottomLeft, topRight);
+	}
+
+	/**
+	 * @param row index of a tank in the store
+	 * @return the tank object the row was loaded from
+	 * @throws UnsupportedOperationException if the store was created from columns only
+	 */
+	public Tank tank(int row) throws UnsupportedOperationException
+	{
+		if(tanks == null)
+		{
+			throw new UnsupportedOperationException("The store was created from columns and holds no tank objects.");
+		}
+		return tanks[row];
+	}
+
+	/**
+	 * @return a new set holding the tank objects of the store
+	 * @throws UnsupportedOperationException if the store was created from columns only
+	 */
+	public Set<Tank> tankSet() throws UnsupportedOperationException
+	{
+		if(tanks == null)
+		{
+			throw new UnsupportedOperationException("The store was created from columns and holds no tank objects.");
+		}
+		return new HashSet<Tank>(Arrays.asList(tanks));
+	}
+
+	/**
+	 * @return the rows of the store ordered from the lowest bottom to the highest
+	 */
+	public int[] rowsByBottom()
+	{
+		int[] rows = identityRows();
+		sortRows(bottoms, rows, new int[size], 0, size);
+		return rows;
+	}
+
+	/**
+	 * @return the rows of the store ordered from the lowest top to the highest
+	 */
+	public int[] rowsByTop()
+	{
+		int[] rows = identityRows();
+		sortRows(tops, rows, new int[size], 0, size);
+		return rows;
+	}
+
+	/**
+	 * @return the column of the bottom heights of the tanks
+	 */
+	DoubleBuffer bottomColumn()
+	{
+		return bottoms;
+	}
+
+	/**
+	 * @return the column of the top heights of the tanks
+	 */
+	DoubleBuffer topColumn()
+	{
+		return tops;
+	}
+
+	/**
+	 * @return the row indexes of the store in storage order
+	 */
+	int[] identityRows()
+	{
+		int[] rows = new int[size];
+		for(int i = 0; i < size; i++)
+		{
+			rows[i] = i;
+		}
+		return rows;
+	}
+
+	/**
+	 * Orders a range of rows by their values in a column with a stable bottom-up merge sort
+	 * over row indexes, so no boxed keys are created
+	 *
+	 * @param column the column to order the rows by
+	 * @param rows the row indexes, of which the range is sorted in place
+	 * @param buffer scratch space at least as long as the rows
+	 * @param low first index of the range
+	 * @param high index just past the range
+	 */
+	static void sortRows(DoubleBuffer column, int[] rows, int[] buffer, int low, int high)
+	{
+		for(int width = 1; width < high - low; width *= 2)
+		{
+			for(int start = low; start < high - width; start += 2 * width)
+			{
+				mergeRows(column, rows, buffer, start, start + width, Math.min(start + 2 * width, high));
+			}
+		}
+	}
+
+	/**
+	 * Merges two adjacent sorted ranges of rows into one sorted range, keeping rows with equal
+	 * values in their original order
+	 *
+	 * @param column the column the rows are ordered by
+	 * @param rows the row indexes
+	 * @param buffer scratch space at least as long as the rows
+	 * @param low first index of the lower range
+	 * @param mid first index of the upper range
+	 * @param high index just past the upper range
+	 */
+	static void mergeRows(DoubleBuffer column, int[] rows, int[] buffer, int low, int mid, int high)
+	{
+		int left = low;
+		int right = mid;
+		int out = low;
+		while(left < mid && right < high)
+		{
+			if(column.get(rows[right]) < column.get(rows[left]))
+			{
+				buffer[out++] = rows[right++];
+			}
+			else
+			{
+				buffer[out++] = rows[left++];
+			}
+		}
+		while(left < mid)
+		{
+			buffer[out++] = rows[left++];
+		}
+		while(right < high)
+		{
+			buffer[out++] = rows[right++];
+		}
+		System.arraycopy(buffer, low, rows, low, high - low);
+	}
+
+	/**
+	 * Allocates a column of doubles outside of the Java heap in the native byte order
+	 *
+	 * @param length number of doubles in the column
+	 * @return the new column
+	 */
+	static DoubleBuffer allocateDirect(int length)
+	{
+		return ByteBuffer.allocateDirect(length * 8).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+	}
+}
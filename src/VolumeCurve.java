@@ -0,0 +1,416 @@
+import java.nio.DoubleBuffer;
+import java.util.Collection;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+public final class VolumeCurve
+{
+	private final DoubleBuffer heights;
+	private final DoubleBuffer volumes;
+	private final DoubleBuffer areas;
+	private final int size;
+
+	/**
+	 * Builds the cumulative volume curve of a water system from its active base area profile.
+	 * Between two consecutive break points the volume grows linearly with the active base area
+	 * of the lower break point, so the volume at each break point is the running total of
+	 * those segments.
+	 *
+	 * @param activeBaseArea map associating each break point to the active base area when the water is at that level
+	 */
+	public VolumeCurve(NavigableMap<Double, Double> activeBaseArea)
+	{
+		this(unbox(activeBaseArea.keySet()), unbox(activeBaseArea.values()));
+	}
+
+	/**
+	 * Builds the cumulative volume curve from sorted break points and the active base area at
+	 * each of them. The arrays are kept, not copied.
+	 *
+	 * @param heights the break points in ascending order
+	 * @param areas the active base area at each break point
+	 */
+	VolumeCurve(double[] heights, double[] areas)
+	{
+		this(DoubleBuffer.wrap(heights), DoubleBuffer.wrap(cumulativeVolumes(heights, areas)), DoubleBuffer.wrap(areas));
+	}
+
+	/**
+	 * Creates a curve over columns that already hold the break points, the cumulative volume
+	 * at each of them and the active base area at each of them, such as the sections of a
+	 * mapped tank file. The columns are read with absolute gets only.
+	 *
+	 * @param heights the break points in ascending order
+	 * @param volumes the volume of the system at each break point
+	 * @param areas the active base area at each break point
+	 */
+	VolumeCurve(DoubleBuffer heights, DoubleBuffer volumes, DoubleBuffer areas)
+	{
+		this.heights = heights;
+		this.volumes = volumes;
+		this.areas = areas;
+		this.size = heights.limit();
+	}
+
+	/**
+	 * Checks if a water height lies between the lowest bottom and the highest top of the system
+	 *
+	 * @param waterHeight The level of the water in the system
+	 * @return True if the height is inside the range of the curve; else, false
+	 */
+	public boolean contains(double waterHeight)
+	{
+		return (size > 0 && waterHeight >= heights.get(0) && waterHeight <= heights.get(size-1));
+	}
+
+	/**
+	 * Finds the total volume of water in the system at a given water level by locating the
+	 * segment that holds the level and extending the volume at its lower break point
+	 *
+	 * @param waterHeight The level of the water in the system, which must be inside the range of the curve
+	 * @return Volume of water in the system at the given water level
+	 */
+	public double volumeAt(double waterHeight)
+	{
+		int segment = segmentAt(waterHeight);
+		return volumes.get(segment) + areas.get(segment) * (waterHeight - heights.get(segment));
+	}
+
+	/**
+	 * Finds the water level that holds a given volume of water. The segment holding the volume
+	 * is found by a binary search over the cumulative volumes, and the level inside it follows
+	 * from dividing the volume left over by the active base area of that segment.
+	 *
+	 * @param waterVolume Volume of water in the system, which must be between zero and the maximum volume
+	 * @return The level of the water in the system
+	 */
+	public double heightAt(double waterVolume)
+	{
+		return heightIn(segmentHolding(waterVolume), waterVolume);
+	}
+
+	/**
+	 * Finds the volume of water at many water levels at once. While the levels ascend, the
+	 * segment holding them is found by walking forward from the segment of the previous
+	 * level, so a sorted batch costs one pass over the break points. A level below the
+	 * previous one falls back to a binary search.
+	 *
+	 * @param waterHeights levels of the water, which must all be inside the range of the curve
+	 * @param waterVolumes array to fill with the volume at each level, at least as long as the levels
+	 */
+	public void volumesAt(double[] waterHeights, double[] waterVolumes)
+	{
+		int segment = 0;
+		for(int i = 0; i < waterHeights.length; i++)
+		{
+			double waterHeight = waterHeights[i];
+			if(i > 0 && waterHeight >= waterHeights[i-1])
+			{
+				while(segment + 1 < size && heights.get(segment+1) <= waterHeight)
+				{
+					segment++;
+				}
+			}
+			else
+			{
+				segment = segmentAt(waterHeight);
+			}
+			waterVolumes[i] = volumes.get(segment) + areas.get(segment) * (waterHeight - heights.get(segment));
+		}
+	}
+
+	/**
+	 * Finds the water level for many volumes at once. While the volumes ascend, the segment
+	 * holding them is found by walking forward from the segment of the previous volume, so a
+	 * sorted batch costs one pass over the break points. A volume below the previous one falls
+	 * back to a binary search.
+	 *
+	 * @param waterVolumes volumes of water, which must all be between zero and the maximum volume
+	 * @param waterHeights array to fill with the level for each volume, at least as long as the volumes
+	 */
+	public void heightsAt(double[] waterVolumes, double[] waterHeights)
+	{
+		int segment = 0;
+		for(int i = 0; i < waterVolumes.length; i++)
+		{
+			double waterVolume = waterVolumes[i];
+			if(i > 0 && waterVolume >= waterVolumes[i-1])
+			{
+				while(segment + 1 < size && volumes.get(segment+1) <= waterVolume)
+				{
+					segment++;
+				}
+			}
+			else
+			{
+				segment = segmentHolding(waterVolume);
+			}
+			waterHeights[i] = heightIn(segment, waterVolume);
+		}
+	}
+
+	/**
+	 * @return the number of break points in the curve
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * @return the volume of the system when every tank is full
+	 */
+	public double getMaxVolume()
+	{
+		return (size == 0 ? 0.0 : volumes.get(size-1));
+	}
+
+	/**
+	 * @param i index of a break point, from 0 to size() - 1
+	 * @return the height of the break point
+	 */
+	public double breakPoint(int i)
+	{
+		return heights.get(i);
+	}
+
+	/**
+	 * @param i index of a break point, from 0 to size() - 1
+	 * @return the volume of the system when the water is at the break point
+	 */
+	public double volume(int i)
+	{
+		return volumes.get(i);
+	}
+
+	/**
+	 * @param i index of a break point, from 0 to size() - 1
+	 * @return the active base area just above the break point
+	 */
+	public double activeArea(int i)
+	{
+		return areas.get(i);
+	}
+
+	/**
+	 * @return a NavigableMap associating the break points to the active base area when the water is at that break point level
+	 */
+	public NavigableMap<Double, Double> activeBaseArea()
+	{
+		NavigableMap<Double, Double> activeBase = new TreeMap<Double, Double>();
+		for(int i = 0; i < size; i++)
+		{
+			activeBase.put(heights.get(i), areas.get(i));
+		}
+		return activeBase;
+	}
+
+	/**
+	 * Finds the segment holding a volume by walking from a nearby segment, which costs only
+	 * the number of break points passed when successive volumes are close together
+	 *
+	 * @param segment a segment to start the walk from
+	 * @param waterVolume Volume of water in the system, which must be between zero and the maximum volume
+	 * @return index of the break point at the bottom of the segment holding the volume
+	 */
+	int walkTo(int segment, double waterVolume)
+	{
+		while(segment + 1 < size && volumes.get(segment+1) <= waterVolume)
+		{
+			segment++;
+		}
+		while(segment > 0 && volumes.get(segment) > waterVolume)
+		{
+			segment--;
+		}
+		return segment;
+	}
+
+	/**
+	 * @param segment index of the break point at the bottom of a segment
+	 * @param waterVolume a volume held by the segment
+	 * @return the level of the water holding the volume
+	 */
+	double heightIn(int segment, double waterVolume)
+	{
+		if(areas.get(segment) == 0)
+		{
+			return heights.get(segment);
+		}
+		return heights.get(segment) + (waterVolume - volumes.get(segment)) / areas.get(segment);
+	}
+
+	/**
+	 * @param segment index of the break point at the bottom of a segment
+	 * @return the active base area of the segment
+	 */
+	double areaIn(int segment)
+	{
+		return areas.get(segment);
+	}
+
+	/**
+	 * @param waterHeight any height
+	 * @return the volume at the height, which is 0 below the curve and the maximum above it
+	 */
+	double volumeAtAny(double waterHeight)
+	{
+		if(size == 0 || waterHeight <= heights.get(0))
+		{
+			return 0.0;
+		}
+		if(waterHeight >= heights.get(size-1))
+		{
+			return getMaxVolume();
+		}
+		return volumeAt(waterHeight);
+	}
+
+	/**
+	 * @param waterHeight any height
+	 * @return the active base area just above the height, which is 0 outside the curve
+	 */
+	double areaAbove(double waterHeight)
+	{
+		if(size == 0 || waterHeight < heights.get(0) || waterHeight >= heights.get(size-1))
+		{
+			return 0.0;
+		}
+		return areas.get(segmentAt(waterHeight));
+	}
+
+	/**
+	 * @return a read-only view of the break points
+	 */
+	DoubleBuffer heightColumn()
+	{
+		return heights.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a read-only view of the volume at each break point
+	 */
+	DoubleBuffer volumeColumn()
+	{
+		return volumes.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a read-only view of the active base area at each break point
+	 */
+	DoubleBuffer areaColumn()
+	{
+		return areas.asReadOnlyBuffer();
+	}
+
+	/**
+	 * @return a copy of the curve whose columns are held outside of the Java heap
+	 */
+	VolumeCurve toDirect()
+	{
+		return new VolumeCurve(copyDirect(heights), copyDirect(volumes), copyDirect(areas));
+	}
+
+	//***********************Private Methods******************
+
+	/**
+	 * @param column a column of the curve
+	 * @return a copy of the column in a direct buffer
+	 */
+	private DoubleBuffer copyDirect(DoubleBuffer column)
+	{
+		DoubleBuffer copy = TankStore.allocateDirect(size);
+		DoubleBuffer source = column.duplicate();
+		source.clear();
+		source.limit(size);
+		copy.put(source);
+		copy.clear();
+		return copy;
+	}
+
+	/**
+	 * Works out the volume at each break point as the running total of the segments below it
+	 *
+	 * @param heights the break points in ascending order
+	 * @param areas the active base area at each break point
+	 * @return the volume of the system at each break point
+	 */
+	private static double[] cumulativeVolumes(double[] heights, double[] areas)
+	{
+		double[] volumes = new double[heights.length];
+		CompensatedSum volume = new CompensatedSum();
+		for(int i = 1; i < heights.length; i++)
+		{
+			volume.add(areas[i-1] * (heights[i] - heights[i-1]));
+			volumes[i] = volume.value();
+		}
+		return volumes;
+	}
+
+	/**
+	 * Copies a collection of doubles into a primitive array in iteration order
+	 *
+	 * @param values the values to copy
+	 * @return the values as a primitive array
+	 */
+	private static double[] unbox(Collection<Double> values)
+	{
+		double[] unboxed = new double[values.size()];
+		int i = 0;
+		for(Double value : values)
+		{
+			unboxed[i++] = value;
+		}
+		return unboxed;
+	}
+
+	/**
+	 * Finds the highest break point that is not above the given height
+	 *
+	 * @param waterHeight The level of the water in the system
+	 * @return index of the break point at the bottom of the segment holding the height
+	 */
+	private int segmentAt(double waterHeight)
+	{
+		int low = 0;
+		int high = size - 1;
+		while(low < high)
+		{
+			int mid = (low + high + 1) >>> 1;
+			if(heights.get(mid) <= waterHeight)
+			{
+				low = mid;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+
+	/**
+	 * Finds the highest break point whose cumulative volume is not above the given volume
+	 *
+	 * @param waterVolume Volume of water in the system
+	 * @return index of the break point at the bottom of the segment holding the volume
+	 */
+	private int segmentHolding(double waterVolume)
+	{
+		int low = 0;
+		int high = size - 1;
+		while(low < high)
+		{
+			int mid = (low + high + 1) >>> 1;
+			if(volumes.get(mid) <= waterVolume)
+			{
+				low = mid;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		return low;
+	}
+}
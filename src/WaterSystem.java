@@ -1,22 +1,184 @@
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 public class WaterSystem
 {
-	Set<Tank> system;
+	final Set<Tank> system;
+	private volatile TankStore store;
+	private volatile VolumeCurve curve;
+	private final ParallelEvaluator parallel;
+	private final double tolerance;
+	private final SweepLine snapshotSweep;
+	private BreakPointTree tree;
+	private volatile IntervalIndex intervals;
+	private volatile FootprintIndex footprints;
+	private volatile SweepLine sweep;
+	private volatile BreakPointIndex bottoms;
+	private volatile BreakPointIndex tops;
+	private volatile BreakPointIndex actives;
+	private volatile QueryCache<Double, Double> volumeCache;
+	private volatile QueryCache<Double, Map<Tank, Double>> levelCache;
+	private volatile SystemMetrics metrics = SystemMetrics.NONE;
 	
 	/**
-	 * Sole constructor
+	 * Creates a water system from a set of tanks. The set is copied, the tanks are loaded into
+	 * columns and the cumulative volume curve of the system is built once here, so later
+	 * changes to the given set do not affect the system; tanks are added and removed through
+	 * addTank and removeTank only.
 	 * 
 	 * @param init_system Set of type Tank containing the tanks that are in the water system
 	 */
 	public WaterSystem(Set<Tank> init_system)
+	{
+		system = new HashSet<Tank>(init_system);
+		store = TankStore.load(system);
+		parallel = null;
+		tolerance = 0.0;
+		snapshotSweep = null;
+		curve = sweepLine().volumeCurve();
+	}
+	
+	/**
+	 * Creates a water system from a set of tanks that splits its full-system passes into
+	 * fork-join tasks. Systems with fewer tanks than the threshold are evaluated sequentially,
+	 * and larger ones are split until each task holds no more tanks than the threshold. The
+	 * set is copied, as with the set constructor.
+	 * 
+	 * @param init_system Set of type Tank containing the tanks that are in the water system
+	 * @param pool the pool that runs the tasks
+	 * @param threshold the largest number of tanks evaluated by one task
+	 * @throws IllegalArgumentException if the threshold is not positive
+	 */
+	public WaterSystem(Set<Tank> init_system, ForkJoinPool pool, int threshold) throws IllegalArgumentException
+	{
+		system = new HashSet<Tank>(init_system);
+		store = TankStore.load(system);
+		parallel = new ParallelEvaluator(pool, threshold);
+		tolerance = 0.0;
+		snapshotSweep = null;
+		curve = sweepLine().volumeCurve();
+	}
+	
+	/**
+	 * Creates a water system that runs its calculations over the columns of a store. If the
+	 * store holds no tank objects, only the methods that do not return tanks can be used.
+	 * 
+	 * @param init_store columns of the tanks that are in the water system
+	 */
+	public WaterSystem(TankStore init_store)
+	{
+		system = (init_store.hasTanks() ? init_store.tankSet() : null);
+		store = init_store;
+		parallel = null;
+		tolerance = 0.0;
+		snapshotSweep = null;
+		curve = sweepLine().volumeCurve();
+	}
+	
+	/**
+	 * Creates a column-only water system over a store and a volume curve that were worked
+	 * out beforehand, such as the sections of a mapped tank file
+	 * 
+	 * @param init_store columns of the tanks that are in the water system
+	 * @param init_curve the volume curve of those tanks
+	 */
+	WaterSystem(TankStore init_store, VolumeCurve init_curve)
+	{
+		system = null;
+		store = init_store;
+		parallel = null;
+		tolerance = 0.0;
+		snapshotSweep = null;
+		curve = init_curve;
+	}
+	
+	/**
+	 * Creates a water system that merges break points lying within a tolerance of each other.
+	 * If the store is held off the heap, the volume curve is moved off the heap as well.
+	 * 
+	 * @param init_system the tanks that are in the water system, or null for a column-only system
+	 * @param init_store columns of those tanks
+	 * @param init_tolerance the largest distance between two bottoms or tops that are merged into one break point
+	 */
+	private WaterSystem(Set<Tank> init_system, TankStore init_store, double init_tolerance)
 	{
 		system = init_system;
+		store = init_store;
+		parallel = null;
+		tolerance = init_tolerance;
+		snapshotSweep = null;
+		VolumeCurve built = sweepLine().volumeCurve();
+		if(init_store.isDirect())
+		{
+			//Keep nothing per tank on the heap; the sort orders are sorted again if an index is asked for
+			curve = built.toDirect();
+			sweep = null;
+		}
+		else
+		{
+			curve = built;
+		}
+	}
+	
+	/**
+	 * Creates a frozen snapshot. The tanks and their coordinates have already been copied and
+	 * every derived index is built here, so nothing reachable from the snapshot can change.
+	 * 
+	 * @param frozenSystem unmodifiable set of the copied tanks, or null for a column-only system
+	 * @param frozenStore columns of the copied tanks
+	 * @param parallelEvaluator evaluator for full-system passes, or null to run them sequentially
+	 * @param frozenTolerance the distance within which break points are merged
+	 */
+	private WaterSystem(Set<Tank> frozenSystem, TankStore frozenStore, ParallelEvaluator parallelEvaluator, double frozenTolerance)
+	{
+		system = frozenSystem;
+		store = frozenStore;
+		parallel = parallelEvaluator;
+		tolerance = frozenTolerance;
+		snapshotSweep = sweepLine();
+		curve = snapshotSweep.volumeCurve();
+	}
+	
+	/**
+	 * Returns a frozen copy of the water system. The tanks and their coordinates are copied
+	 * once and all derived indexes are built eagerly, so the snapshot can be queried by many
+	 * threads at once without locking and is not affected by later changes to the tanks
+	 * this system was created from.
+	 * 
+	 * @return a snapshot of the current tanks in the system
+	 */
+	public WaterSystem snapshot()
+	{
+		if(system == null)
+		{
+			//The columns of a column-only store are never written after creation
+			return new WaterSystem(null, store, parallel, tolerance);
+		}
+		Set<Tank> copies = new HashSet<Tank>();
+		for(Tank t : system)
+		{
+			copies.add(t.copy());
+		}
+		Set<Tank> frozen = Collections.unmodifiableSet(copies);
+		return new WaterSystem(frozen, TankStore.load(frozen), parallel, tolerance);
+	}
+	
+	/**
+	 * @return True if this system is a frozen snapshot; else, false
+	 */
+	public boolean isSnapshot()
+	{
+		return snapshotSweep != null;
 	}
 	
 	/**
@@ -30,8 +192,16 @@ public class WaterSystem
 	 */
 	public NavigableMap<Double, Set<Tank>> tanksByBottom()
 	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		if(parallel != null)
+		{
+			NavigableMap<Double, Set<Tank>> byBottom = parallel.tanksByBottom(store());
+			m.record(SystemMetrics.Query.TANKS_BY_BOTTOM, start, store().size(), byBottom.size() + 1);
+			return byBottom;
+		}
 		NavigableMap<Double, Set<Tank>> byBottom = new TreeMap<Double, Set<Tank>>();
-		for(Tank t : system)
+		for(Tank t : tanks())
 		{
 			Set<Tank> temp = new HashSet<Tank>();
 			if(byBottom.containsKey(t.getBottom()))
@@ -45,7 +215,8 @@ public class WaterSystem
 			}
 			byBottom.put(t.getBottom(), temp);
 		}
-		
+		//One set is created for every tank, whether or not it is kept
+		m.record(SystemMetrics.Query.TANKS_BY_BOTTOM, start, system.size(), system.size() + 1);
 		return byBottom;
 	}
 	
@@ -60,8 +231,16 @@ public class WaterSystem
 	 */
 	public NavigableMap<Double, Set<Tank>> tanksByTop()
 	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		if(parallel != null)
+		{
+			NavigableMap<Double, Set<Tank>> byTop = parallel.tanksByTop(store());
+			m.record(SystemMetrics.Query.TANKS_BY_TOP, start, store().size(), byTop.size() + 1);
+			return byTop;
+		}
 		NavigableMap<Double, Set<Tank>> byTop = new TreeMap<Double, Set<Tank>>();
-		for(Tank t : system)
+		for(Tank t : tanks())
 		{
 			Set<Tank> temp = new HashSet<Tank>();
 			if(byTop.containsKey(t.getTop()))
@@ -75,60 +254,232 @@ public class WaterSystem
 			}
 			byTop.put(t.getTop(), temp);
 		}
+		m.record(SystemMetrics.Query.TANKS_BY_TOP, start, system.size(), system.size() + 1);
 		return byTop;
 	}
 	
 	/**
-	 * At each break point in the system, check each tank in the system.  If the bottom of the
-	 * tank is less than or equal to the break point and if the top is greater than it, the
-	 * tank is added to a set that is then associated to the corresponding break point.
+	 * Sweeps the break points of the system from the lowest to the highest, keeping a running
+	 * set of the tanks whose bottom is less than or equal to the break point and whose top is
+	 * greater than it. That set is associated to the corresponding break point.
 	 * 
 	 * @return a map that associates each break point to its active tanks
 	 */
 	public NavigableMap<Double, Set<Tank>> activeTanks()
 	{
-		NavigableMap<Double, Set<Tank>> actives = new TreeMap<Double, Set<Tank>>();
-		Set<Double> breakPoints = getBreakPoints();
-		
-		for(Double bP : breakPoints)
+		SystemMetrics m = metrics;
+		long start = m.start();
+		NavigableMap<Double, Set<Tank>> actives = sweepLine().activeTanks();
+		//The sweep keeps one running set and copies it at every break point
+		m.record(SystemMetrics.Query.ACTIVE_TANKS, start, 2L * store().size(), actives.size() + 2);
+		return actives;
+	}
+	
+	/**
+	 * Groups the tanks by the height of their bottom into flat arrays: the distinct bottoms in
+	 * ascending order and, for each, a run of rows of the store. Unlike tanksByBottom, no key
+	 * is boxed and no set is built per break point.
+	 * 
+	 * @return an index from each distinct bottom to its rows
+	 */
+	public BreakPointIndex bottomIndex()
+	{
+		BreakPointIndex index = bottoms;
+		if(index == null)
+		{
+			SweepLine line = sweepLine();
+			index = BreakPointIndex.grouped(line.store(), line.store().bottomColumn(), line.byBottom());
+			bottoms = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Groups the tanks by the height of their top into flat arrays, as bottomIndex does for bottoms
+	 * 
+	 * @return an index from each distinct top to its rows
+	 */
+	public BreakPointIndex topIndex()
+	{
+		BreakPointIndex index = tops;
+		if(index == null)
+		{
+			SweepLine line = sweepLine();
+			index = BreakPointIndex.grouped(line.store(), line.store().topColumn(), line.byTop());
+			tops = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Sweeps the break points as activeTanks does, but records the active rows at each break
+	 * point in one flat array instead of a set per break point. The active base areas at the
+	 * same break points are read from volumeCurve() by index.
+	 * 
+	 * @return an index from each break point to the rows active above it
+	 * @throws IllegalStateException if the active groups together hold more rows than an array can
+	 */
+	public BreakPointIndex activeIndex() throws IllegalStateException
+	{
+		BreakPointIndex index = actives;
+		if(index == null)
 		{
-			Set<Tank> activeAtBP = new HashSet<Tank>();
-			for(Tank t : system)
+			index = sweepLine().activeIndex();
+			actives = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Lists, in the order the level meets them, the bottoms and tops that the water passes as
+	 * its level moves from one height to another. Going up, a bottom is passed once the level
+	 * is above it and a top once the level reaches it, and a bottom comes before a top at the
+	 * same height; going down the order is reversed. These are the crossings a FillSimulation
+	 * reports. The ends of the run are found by binary search in the rows sorted by bottom and
+	 * by top, so the time taken is O(log n) plus the number of crossings.
+	 * 
+	 * @param fromHeight the level the water starts at
+	 * @param toHeight the level the water ends at
+	 * @return the crossings in the order they happen
+	 * @throws UnsupportedOperationException if the system holds no tank objects
+	 */
+	public List<Crossing> crossingsBetweenHeights(double fromHeight, double toHeight) throws UnsupportedOperationException
+	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		tanks();
+		SweepLine line = sweepLine();
+		TankStore current = line.store();
+		int[] byBottom = line.byBottom();
+		int[] byTop = line.byTop();
+		boolean rising = (toHeight > fromHeight);
+		double low = Math.min(fromHeight, toHeight);
+		double high = Math.max(fromHeight, toHeight);
+		//Bottoms in [low, high) and tops in (low, high] change state
+		int b = firstAbove(current.bottomColumn(), byBottom, low, true);
+		int bEnd = firstAbove(current.bottomColumn(), byBottom, high, true);
+		int t = firstAbove(current.topColumn(), byTop, low, false);
+		int tEnd = firstAbove(current.topColumn(), byTop, high, false);
+		List<Crossing> crossings = new ArrayList<Crossing>((bEnd - b) + (tEnd - t));
+		if(rising)
+		{
+			while(b < bEnd || t < tEnd)
 			{
-				if(t.getBottom() <= bP && t.getTop() > bP)
+				if(t == tEnd || (b < bEnd && current.bottom(byBottom[b]) <= current.top(byTop[t])))
+				{
+					crossings.add(new Crossing(current.tank(byBottom[b++]), false, true));
+				}
+				else
 				{
-					activeAtBP.add(t);
+					crossings.add(new Crossing(current.tank(byTop[t++]), true, true));
 				}
 			}
-			actives.put(bP, activeAtBP);
 		}
-				
-		return actives;
+		else
+		{
+			while(b < bEnd || t < tEnd)
+			{
+				if(b == bEnd || (t < tEnd && current.top(byTop[tEnd-1]) >= current.bottom(byBottom[bEnd-1])))
+				{
+					crossings.add(new Crossing(current.tank(byTop[--tEnd]), true, false));
+				}
+				else
+				{
+					crossings.add(new Crossing(current.tank(byBottom[--bEnd]), false, false));
+				}
+			}
+		}
+		m.record(SystemMetrics.Query.CROSSINGS, start, crossings.size(), 1);
+		return crossings;
 	}
 	
 	/**
-	 * Checks every break point in the system. If a tank is active at that point,
-	 * it's base area is added to a temporary count.  When the break point
-	 * is done being checked, the association is added to the map.
+	 * Lists the bottoms and tops the water passes as the volume in the system moves from one
+	 * amount to another, by turning both volumes into levels on the volume curve and listing
+	 * the crossings between those levels
 	 * 
-	 * @return a NavigableMap associating the break points to the active base area when the water is at that break point level.
+	 * @param fromVolume the volume of water the system starts with
+	 * @param toVolume the volume of water the system ends with
+	 * @return the crossings in the order they happen
+	 * @throws IllegalArgumentException if either volume is negative or more than the maximum capacity of the system
+	 * @throws UnsupportedOperationException if the system holds no tank objects
 	 */
-	public NavigableMap<Double, Double> activeBaseArea()
+	public List<Crossing> crossingsBetweenVolumes(double fromVolume, double toVolume) throws IllegalArgumentException, UnsupportedOperationException
 	{
-		NavigableMap<Double, Set<Tank>> actives = new TreeMap<Double, Set<Tank>>();
-		actives = activeTanks();
-		NavigableMap<Double, Double> activeBase = new TreeMap<Double, Double>();
-		double baseArea;
-		for(Double breakPoint : actives.keySet())
+		VolumeCurve current = curve();
+		double maxVolume = current.getMaxVolume();
+		if(!(fromVolume >= 0 && fromVolume <= maxVolume && toVolume >= 0 && toVolume <= maxVolume))
 		{
-			baseArea = 0;
-			for(Tank active : actives.get(breakPoint))
-			{
-				baseArea += active.baseArea();
-			}
-			activeBase.put(breakPoint, baseArea);
+			throw new IllegalArgumentException("Given water volume is negative or more than the maximum capacity of the system");
+		}
+		return crossingsBetweenHeights(current.heightAt(fromVolume), current.heightAt(toVolume));
+	}
+	
+	/**
+	 * @return the height of the lowest bottom in the system, read off the volume curve, or off
+	 * the tree of break points in O(log n) if tanks have changed since the curve was built
+	 * @throws IllegalStateException if the system holds no tanks
+	 */
+	public double getLowestBottom() throws IllegalStateException
+	{
+		VolumeCurve current = curve;
+		if(current == null)
+		{
+			return tree.lowest();
+		}
+		if(current.size() == 0)
+		{
+			throw new IllegalStateException("The water system holds no tanks.");
+		}
+		return current.breakPoint(0);
+	}
+	
+	/**
+	 * @return the height of the highest top in the system, read off the volume curve, or off
+	 * the tree of break points in O(log n) if tanks have changed since the curve was built
+	 * @throws IllegalStateException if the system holds no tanks
+	 */
+	public double getHighestTop() throws IllegalStateException
+	{
+		VolumeCurve current = curve;
+		if(current == null)
+		{
+			return tree.highest();
 		}
-		return activeBase;
+		if(current.size() == 0)
+		{
+			throw new IllegalStateException("The water system holds no tanks.");
+		}
+		return current.breakPoint(current.size() - 1);
+	}
+	
+	/**
+	 * @return the volume of the system when every tank is full
+	 */
+	public double getMaxVolume()
+	{
+		VolumeCurve current = curve;
+		if(current == null)
+		{
+			//Tanks have changed; the tree already holds the new total
+			return tree.getMaxVolume();
+		}
+		return curve().getMaxVolume();
+	}
+	
+	/**
+	 * Reads the active base area at each break point off the volume curve of the system, which
+	 * keeps a running total of the base area of the active tanks as it sweeps the break points.
+	 * 
+	 * @return a NavigableMap associating the break points to the active base area when the water is at that break point level.
+	 */
+	public NavigableMap<Double, Double> activeBaseArea()
+	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		NavigableMap<Double, Double> areas = curve().activeBaseArea();
+		m.record(SystemMetrics.Query.ACTIVE_BASE_AREA, start, 0, 1);
+		return areas;
 	}
 	
 	/**
@@ -141,43 +492,80 @@ public class WaterSystem
 	 */
 	public Map<Tank, Double> heightToTankLevel(Double waterHeight)
 	{
-		Map<Tank, Double> heightToTankLevel = new HashMap<Tank, Double>();
-		for(Tank t : system)
+		SystemMetrics m = metrics;
+		long start = m.start();
+		Map<Tank, Double> heightToTankLevel = levelsAt(waterHeight);
+		m.record(SystemMetrics.Query.HEIGHT_TO_TANK_LEVEL, start, heightToTankLevel.size(), 1);
+		return heightToTankLevel;
+	}
+	
+	/**
+	 * Returns a compact view of the level of every tank at a given water height. The view
+	 * stores only the height and works out the level of a tank when it is asked for, and it
+	 * can list just the partially filled tanks without visiting the empty and full ones.
+	 * 
+	 * @param waterHeight The level of the water in the system
+	 * @return a view of the levels to which the tanks are filled
+	 */
+	public TankLevels heightToLevels(double waterHeight)
+	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		TankStore current = store();
+		IntervalIndex index = intervals;
+		if(index == null)
 		{
-			if(t.getTop()<waterHeight)
-			{
-				heightToTankLevel.put(t, t.getHeight());
-			}
-			else if(t.getBottom()<waterHeight)
-			{
-				heightToTankLevel.put(t, Math.abs(waterHeight - t.getBottom()));
-			}
-			else
-			{
-				heightToTankLevel.put(t, 0.0);
-			}
+			index = new IntervalIndex(current);
+			intervals = index;
 		}
-		return heightToTankLevel;
+		TankLevels levels = new TankLevels(current, index, waterHeight);
+		m.record(SystemMetrics.Query.HEIGHT_TO_LEVELS, start, 0, 0);
+		return levels;
+	}
+	
+	/**
+	 * Given a volume, returns a compact view of the level to which each tank is filled
+	 * 
+	 * @param waterVolume Volume of water in the system
+	 * @return a view of the levels to which the tanks are filled
+	 * @throws IllegalArgumentException If the given volume is less than zero or greater than the maximum possible volume
+	 */
+	public TankLevels volumeToLevels(double waterVolume) throws IllegalArgumentException
+	{
+		return heightToLevels(volumeToHeight(waterVolume));
 	}
 	
 	/**
-	 * Finds the total volume of water in the system at a given water level
+	 * Finds the total volume of water in the system at a given water level by looking it up
+	 * on the precomputed volume curve of the system, or on the tree of break points if tanks
+	 * have been added or removed since the curve was built. If the result cache is on, repeated
+	 * heights are answered from it.
 	 * 
 	 * @param waterHeight The level of the water in the system
 	 * @return Volume of water in the system at a given water level
-	 * @throws IllegalStateException if the volume is less than 0 or greater than the max possible volume 
+	 * @throws IllegalArgumentException if the height is below the lowest bottom or above the highest top in the system
 	 */
 	public Double heightToVolume(Double waterHeight) throws IllegalArgumentException
 	{
-		if(waterHeight <= tanksByTop().lastKey() && waterHeight >= tanksByBottom().firstKey())
+		SystemMetrics m = metrics;
+		long start = m.start();
+		QueryCache<Double, Double> cache = volumeCache;
+		Double cached = (cache != null ? cache.get(waterHeight) : null);
+		if(cached != null)
 		{
-			Map<Tank, Double> heightToTankLevel = heightToTankLevel(waterHeight);
-			double systemVolume = 0;
-			for(Tank t : heightToTankLevel.keySet())
+			m.record(SystemMetrics.Query.HEIGHT_TO_VOLUME, start, 0, 0);
+			return cached;
+		}
+		VolumeCurve current = curve;
+		if(current != null ? current.contains(waterHeight) : tree.contains(waterHeight))
+		{
+			Double volume = (current != null ? current.volumeAt(waterHeight) : tree.volumeAt(waterHeight));
+			if(cache != null)
 			{
-				systemVolume += (heightToTankLevel.get(t) * t.baseArea());
+				cache.put(waterHeight, volume);
 			}
-			return systemVolume;
+			m.record(SystemMetrics.Query.HEIGHT_TO_VOLUME, start, 0, 0);
+			return volume;
 		}
 		else
 		{
@@ -186,7 +574,35 @@ public class WaterSystem
 	}
 	
 	/**
-	 * Given a volume, finds the level to which each tank is individually filled
+	 * @return the cumulative volume curve of the system, for callers that want primitive lookups
+	 */
+	public VolumeCurve volumeCurve()
+	{
+		return curve();
+	}
+	
+	/**
+	 * Given a volume, finds the level of the water in the system by inverting the volume curve,
+	 * or by walking down the tree of break points if tanks have been added or removed since
+	 * the curve was built
+	 * 
+	 * @param waterVolume Volume of water in the system
+	 * @return The level of the water in the system
+	 * @throws IllegalArgumentException If the given volume is less than zero or greater than the maximum possible volume
+	 */
+	public Double volumeToHeight(Double waterVolume) throws IllegalArgumentException
+	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		Double height = heightHolding(waterVolume);
+		m.record(SystemMetrics.Query.VOLUME_TO_HEIGHT, start, 0, 0);
+		return height;
+	}
+	
+	/**
+	 * Given a volume, finds the level to which each tank is individually filled. If the result
+	 * cache is on, repeated volumes are answered from it with a copy of the cached map, so the
+	 * returned map is the caller's own either way.
 	 * 
 	 * @param waterVolume Volume of water in the system
 	 * @return Map associating all tanks to the level that they are filled
@@ -194,153 +610,777 @@ public class WaterSystem
 	 */
 	public Map<Tank, Double> volumeToTankLevel(Double waterVolume) throws IllegalArgumentException
 	{
-		if(waterVolume > 0 && waterVolume < getMaxVol())
-		{
-			Double waterLeft = waterVolume;
-			Set<Tank> partFullTanks = partFullTanks(waterVolume);
-			double fullTanksVol = volFullTanks(waterVolume);
-			
-			double[] partFullTanksNumbers = partFullTanksHelperNumbers(partFullTanks);
-			double highestBottom = partFullTanksNumbers[0];
-			double totalBaseArea = partFullTanksNumbers[1];
-			
-			//The volume of water between the bottom of the highest bottom and the actual water level of partially filled tanks
-			waterLeft = waterVolume - fullTanksVol - heightToVolumeFromSet(highestBottom, partFullTanks);
-			//The height of the volume of water in waterLeft
-			double heightLeft = waterLeft / totalBaseArea;
-			//The water level of the system
-			double heightOfWater = highestBottom + heightLeft;
-			
-			//With the height of the water in the system now known, heightToTankLevel can now be used
-			return heightToTankLevel(heightOfWater);
+		SystemMetrics m = metrics;
+		long start = m.start();
+		QueryCache<Double, Map<Tank, Double>> cache = levelCache;
+		Map<Tank, Double> levels = (cache != null ? cache.get(waterVolume) : null);
+		if(levels != null)
+		{
+			m.record(SystemMetrics.Query.VOLUME_TO_TANK_LEVEL, start, 0, 1);
+			return new HashMap<Tank, Double>(levels);
 		}
-		else
+		levels = levelsAt(heightHolding(waterVolume));
+		if(cache != null)
 		{
-			throw new IllegalArgumentException("Given water volume is negative or more than the maximum capacity of the system");
+			cache.put(waterVolume, Collections.unmodifiableMap(new HashMap<Tank, Double>(levels)));
 		}
+		m.record(SystemMetrics.Query.VOLUME_TO_TANK_LEVEL, start, levels.size(), 1);
+		return levels;
 	}
 	
-	//***********************Private Methods******************
+	/**
+	 * Turns on the result cache of heightToVolume and volumeToTankLevel, or turns it off. Each
+	 * query keeps up to the given number of results and drops the least recently used one
+	 * when it is full. The cache is cleared whenever a tank is added or removed.
+	 * 
+	 * @param maxEntries the most results kept for each query, or 0 to turn the cache off
+	 * @throws IllegalArgumentException if the number of entries is negative
+	 */
+	public void setCacheSize(int maxEntries) throws IllegalArgumentException
+	{
+		if(maxEntries < 0)
+		{
+			throw new IllegalArgumentException("Cache size must not be negative.");
+		}
+		volumeCache = (maxEntries == 0 ? null : new QueryCache<Double, Double>(maxEntries));
+		levelCache = (maxEntries == 0 ? null : new QueryCache<Double, Map<Tank, Double>>(maxEntries));
+	}
+	
+	/**
+	 * @return the number of cached queries answered from the cache since it was turned on
+	 */
+	public long getCacheHits()
+	{
+		QueryCache<Double, Double> volumes = volumeCache;
+		QueryCache<Double, Map<Tank, Double>> levels = levelCache;
+		return (volumes != null ? volumes.hits() : 0) + (levels != null ? levels.hits() : 0);
+	}
 	
 	/**
-	 * Finds the maximum volume of all the tanks in the system combined. It checks
-	 * the volume of each tank and adds it to a total.
+	 * @return the number of cached queries that had to be worked out since the cache was turned on
+	 */
+	public long getCacheMisses()
+	{
+		QueryCache<Double, Double> volumes = volumeCache;
+		QueryCache<Double, Map<Tank, Double>> levels = levelCache;
+		return (volumes != null ? volumes.misses() : 0) + (levels != null ? levels.misses() : 0);
+	}
+	
+	/**
+	 * Finds the total volume of water in the system for every water level in a batch. Levels
+	 * given in ascending order are looked up in a single walk over the volume curve.
 	 * 
-	 * @return Maximum volume of the system
+	 * @param waterHeights levels of the water in the system
+	 * @param waterVolumes array to fill with the volume at each level
+	 * @throws IllegalArgumentException if the output is shorter than the input or a level is outside the range of the water system
 	 */
-	private Double getMaxVol()
+	public void heightsToVolumes(double[] waterHeights, double[] waterVolumes) throws IllegalArgumentException
 	{
-		double volume = 0.0;
-		for(Tank t : system)
+		VolumeCurve curve = curve();
+		if(waterVolumes.length < waterHeights.length)
 		{
-			volume += (t.getVolume());
+			throw new IllegalArgumentException("Output array is shorter than the given water heights.");
 		}
-		return volume;
+		for(int i = 0; i < waterHeights.length; i++)
+		{
+			if(!curve.contains(waterHeights[i]))
+			{
+				throw new IllegalArgumentException("Water height at index " + i + " is outside the range of the water system.");
+			}
+		}
+		SystemMetrics m = metrics;
+		long start = m.start();
+		curve.volumesAt(waterHeights, waterVolumes);
+		m.record(SystemMetrics.Query.HEIGHTS_TO_VOLUMES, start, 0, 0);
 	}
 	
-
 	/**
-	 * Finds the total volume of water in the set at a given water level
+	 * Finds the level of the water in the system for every volume in a batch. Volumes given in
+	 * ascending order are looked up in a single walk over the volume curve.
 	 * 
-	 * @param waterHeight Height of water in the system
-	 * @param tanks Set of tanks to be considered
-	 * @return volume of water in the set of tanks
+	 * @param waterVolumes volumes of water in the system
+	 * @param waterHeights array to fill with the level for each volume
+	 * @throws IllegalArgumentException if the output is shorter than the input or a volume is negative or more than the maximum capacity of the system
 	 */
-	private Double heightToVolumeFromSet(Double waterHeight, Set<Tank> tanks)
+	public void volumesToHeights(double[] waterVolumes, double[] waterHeights) throws IllegalArgumentException
 	{
-		Map<Tank, Double> heightToTankLevel = heightToTankLevel(waterHeight);
-		double systemVolume = 0;
-		for(Tank t : tanks)
+		VolumeCurve curve = curve();
+		if(waterHeights.length < waterVolumes.length)
 		{
-			systemVolume += (heightToTankLevel.get(t) * t.baseArea());
+			throw new IllegalArgumentException("Output array is shorter than the given water volumes.");
 		}
-		return systemVolume;
+		double maxVolume = curve.getMaxVolume();
+		for(int i = 0; i < waterVolumes.length; i++)
+		{
+			if(!(waterVolumes[i] > 0 && waterVolumes[i] < maxVolume))
+			{
+				throw new IllegalArgumentException("Water volume at index " + i + " is negative or more than the maximum capacity of the system");
+			}
+		}
+		SystemMetrics m = metrics;
+		long start = m.start();
+		curve.heightsAt(waterVolumes, waterHeights);
+		m.record(SystemMetrics.Query.VOLUMES_TO_HEIGHTS, start, 0, 0);
 	}
 	
-
 	/**
-	 * Finds all break points in the system
+	 * Adds a tank to the system. Its bottom and top are inserted into a balanced tree of the
+	 * break points that keeps the active base area and volume sums of every subtree, so the
+	 * change costs O(log n) and the volume queries that follow stay logarithmic.
 	 * 
-	 * @return set of the break points
+	 * @param tank the tank to add
+	 * @return True if the tank was added; false if an equal tank is already in the system
+	 * @throws IllegalArgumentException if the coordinates of the tank have not been set
+	 * @throws UnsupportedOperationException if the system is a snapshot, merges break points or holds no tank objects
 	 */
-	private Set<Double> getBreakPoints()
+	public boolean addTank(Tank tank) throws IllegalArgumentException, UnsupportedOperationException
 	{
-		Set<Double> breakPoints = new HashSet<Double>();
-		for(Tank t : system)
+		if(!tank.coordsSet)
 		{
-			breakPoints.add(t.getBottom());
-			breakPoints.add(t.getTop());
+			throw new IllegalArgumentException("Tank coordinates must be set before it is added.");
 		}
-		return breakPoints;
+		BreakPointTree profile = changeableTree();
+		if(!system.add(tank))
+		{
+			return false;
+		}
+		profile.add(tank.getBottom(), tank.getTop(), tank.baseArea());
+		changed();
+		return true;
 	}
 	
+	/**
+	 * Removes a tank from the system in O(log n) by taking its bottom and top out of the
+	 * balanced tree of break points.
+	 * 
+	 * @param tank the tank to remove
+	 * @return True if the tank was removed; false if it was not in the system
+	 * @throws UnsupportedOperationException if the system is a snapshot, merges break points or holds no tank objects
+	 */
+	public boolean removeTank(Tank tank) throws UnsupportedOperationException
+	{
+		BreakPointTree profile = changeableTree();
+		if(!system.remove(tank))
+		{
+			return false;
+		}
+		profile.remove(tank.getBottom(), tank.getTop(), tank.baseArea());
+		changed();
+		return true;
+	}
 	
 	/**
-	 * For each tank in the system, as long as the volume of water in the system is less than the volume of
-	 * the water level at the top of the tank and greater than if it was at the bottom of the tank,
-	 * it can be inferred that the tank has water in it, but is not full
+	 * Finds the tanks whose footprint on the floor shares a positive area with a region,
+	 * through an R-tree of the footprints that is built the first time a region is asked for.
 	 * 
-	 * @param waterVolume volume of water in the system
-	 * @return set of tanks that are partially full
+	 * @param region an area of the floor
+	 * @return the tanks that lie at least partly in the region
+	 * @throws UnsupportedOperationException if the system holds no tank objects
 	 */
-	private Set<Tank> partFullTanks(Double waterVolume)
+	public Set<Tank> tanksInRegion(Region region) throws UnsupportedOperationException
 	{
-		Set<Tank> partFullTanks = new HashSet<Tank>();
-		for(Tank t : system)
+		SystemMetrics m = metrics;
+		long start = m.start();
+		tanks();
+		TankStore current = store();
+		int[] rows = footprints(current).search(region);
+		Set<Tank> found = new HashSet<Tank>();
+		for(int row : rows)
+		{
+			found.add(current.tank(row));
+		}
+		m.record(SystemMetrics.Query.TANKS_IN_REGION, start, rows.length, 1);
+		return found;
+	}
+	
+	/**
+	 * Finds the volume of water held above a region of the floor at a water level. Each tank
+	 * in the region holds its filled depth times the part of its base that lies inside the
+	 * region, so the time taken grows with the number of tanks in the region only.
+	 * 
+	 * @param waterHeight The level of the water in the system
+	 * @param region an area of the floor
+	 * @return Volume of water above the region at the given water level
+	 * @throws IllegalArgumentException if the height is below the lowest bottom or above the highest top in the system
+	 * @throws UnsupportedOperationException if the system holds neither tank objects nor corner columns
+	 */
+	public double heightToVolume(double waterHeight, Region region) throws IllegalArgumentException, UnsupportedOperationException
+	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		if(!curve().contains(waterHeight))
+		{
+			throw new IllegalArgumentException("Water height is outside the range of the water system.");
+		}
+		TankStore current = store();
+		FootprintIndex index = footprints(current);
+		int[] rows = index.search(region);
+		CompensatedSum volume = new CompensatedSum();
+		for(int row : rows)
 		{
-			if(heightToVolume(t.getTop()) > waterVolume && heightToVolume(t.getBottom()) < waterVolume)
+			double depth = Math.min(waterHeight, current.top(row)) - current.bottom(row);
+			if(depth > 0)
 			{
-				partFullTanks.add(t);
+				volume.add(depth * index.overlap(row, region));
 			}
 		}
-		return partFullTanks;
+		m.record(SystemMetrics.Query.REGION_HEIGHT_TO_VOLUME, start, rows.length, 0);
+		return volume.value();
 	}
 	
+	/**
+	 * Works out the active base area at each break point of the tanks in a region, counting
+	 * only the part of each base that lies inside the region. The break points are those of
+	 * the tanks found, which are swept in O(k log k) for k tanks in the region.
+	 * 
+	 * @param region an area of the floor
+	 * @return a NavigableMap associating the break points of the region to the active base area inside it
+	 * @throws UnsupportedOperationException if the system holds neither tank objects nor corner columns
+	 */
+	public NavigableMap<Double, Double> activeBaseArea(Region region) throws UnsupportedOperationException
+	{
+		SystemMetrics m = metrics;
+		long start = m.start();
+		TankStore current = store();
+		FootprintIndex index = footprints(current);
+		int[] rows = index.search(region);
+		double[] bottoms = new double[rows.length];
+		double[] tops = new double[rows.length];
+		double[] areas = new double[rows.length];
+		for(int i = 0; i < rows.length; i++)
+		{
+			bottoms[i] = current.bottom(rows[i]);
+			tops[i] = current.top(rows[i]);
+			areas[i] = index.overlap(rows[i], region);
+		}
+		TankStore clipped = new TankStore(DoubleBuffer.wrap(bottoms), DoubleBuffer.wrap(tops), DoubleBuffer.wrap(areas), null);
+		NavigableMap<Double, Double> activeArea = new SweepLine(clipped).volumeCurve().activeBaseArea();
+		m.record(SystemMetrics.Query.REGION_ACTIVE_BASE_AREA, start, rows.length, 1);
+		return activeArea;
+	}
 	
 	/**
-	 * If the volume of water in the system is greater than the volume of water in the system if the height
-	 * of the water was at the top of a tank, we can infer that that tank is full of water. By adding all of
-	 * their volumes, we have the combined volume of all full tanks in the system
+	 * Sets the metrics that the queries of the system report their calls, time, scanned tanks
+	 * and created collections to. Systems start with SystemMetrics.NONE, which records nothing.
 	 * 
-	 * @param waterVolume volume of water in the system
-	 * @return volume of water only in completely full tanks
+	 * @param systemMetrics the metrics to report to, or null to stop reporting
 	 */
-	private Double volFullTanks(Double waterVolume)
+	public void setMetrics(SystemMetrics systemMetrics)
 	{
-		double fullTanksVol = 0.0;
-		for(Tank t : system)
+		metrics = (systemMetrics == null ? SystemMetrics.NONE : systemMetrics);
+	}
+	
+	/**
+	 * @return the columns of the tanks in the system
+	 */
+	public TankStore tankStore()
+	{
+		return store();
+	}
+	
+	//***********************Private Methods******************
+	
+	/**
+	 * Finds the sweep line over the tanks in the system. The rows are sorted, in parallel if
+	 * the system is set up for it, the first time a sweep is needed after a change, and the
+	 * sorted orders are then shared by every query until the next change.
+	 * 
+	 * @return a sweep line over the tanks in the system
+	 */
+	private SweepLine sweepLine()
+	{
+		if(snapshotSweep != null)
+		{
+			return snapshotSweep;
+		}
+		SweepLine line = sweep;
+		if(line == null)
 		{
-			if(heightToVolume(t.getTop()) < waterVolume)
+			TankStore current = store();
+			if(parallel != null)
 			{
-				fullTanksVol += t.getVolume();
+				line = new SweepLine(current, parallel.rowsByBottom(current), parallel.rowsByTop(current), tolerance);
 			}
+			else
+			{
+				line = new SweepLine(current, current.rowsByBottom(), current.rowsByTop(), tolerance);
+			}
+			sweep = line;
 		}
-		return fullTanksVol;
+		return line;
+	}
+	
+	/**
+	 * @return the columns of the tanks in the system, reloaded if tanks have been added or removed
+	 */
+	private TankStore store()
+	{
+		TankStore current = store;
+		if(current == null)
+		{
+			current = TankStore.load(system);
+			store = current;
+		}
+		return current;
 	}
 	
-
 	/**
-	 * Finds the partially filled tank with a bottom higher than any other partially filled tank
-	 * and finds the total base area of all the partially filled tanks
+	 * Works out heightToTankLevel without recording it, for queries that are recorded as a
+	 * whole
 	 * 
-	 * @param partFullTanks set of tanks that are partially filled
-	 * @return array containing the highest bottom of a tank and the total base area of all partially filled tanks
+	 * @param waterHeight The level of the water in the system
+	 * @return A map that associates each tank with the level to which the tank is filled
 	 */
-	private double[] partFullTanksHelperNumbers(Set<Tank> partFullTanks)
+	private Map<Tank, Double> levelsAt(Double waterHeight)
 	{
-		double highestBottom = 0.0;
-		double totalBaseArea = 0.0;
-		for(Tank t : partFullTanks)
+		if(parallel != null)
 		{
-			if(t.getBottom() > highestBottom)
+			return parallel.heightToTankLevel(store(), waterHeight);
+		}
+		Map<Tank, Double> heightToTankLevel = new HashMap<Tank, Double>();
+		for(Tank t : tanks())
+		{
+			if(t.getTop()<waterHeight)
+			{
+				heightToTankLevel.put(t, t.getHeight());
+			}
+			else if(t.getBottom()<waterHeight)
+			{
+				heightToTankLevel.put(t, Math.abs(waterHeight - t.getBottom()));
+			}
+			else
 			{
-				highestBottom = t.getBottom();
+				heightToTankLevel.put(t, 0.0);
 			}
-			totalBaseArea += t.baseArea();
 		}
-		double[] retArray = new double[2];
-		retArray[0] = highestBottom;
-		retArray[1] = totalBaseArea;
-		return retArray;
+		return heightToTankLevel;
+	}
+	
+	/**
+	 * Works out volumeToHeight without recording it, for queries that are recorded as a whole
+	 * 
+	 * @param waterVolume Volume of water in the system
+	 * @return The level of the water in the system
+	 * @throws IllegalArgumentException If the given volume is less than zero or greater than the maximum possible volume
+	 */
+	private Double heightHolding(Double waterVolume) throws IllegalArgumentException
+	{
+		VolumeCurve current = curve;
+		if(waterVolume > 0 && waterVolume < (current != null ? current.getMaxVolume() : tree.getMaxVolume()))
+		{
+			return (current != null ? current.heightAt(waterVolume) : tree.heightAt(waterVolume));
+		}
+		else
+		{
+			throw new IllegalArgumentException("Given water volume is negative or more than the maximum capacity of the system");
+		}
+	}
+	
+	/**
+	 * @return the volume curve of the system, rebuilt from the tree of break points if tanks
+	 * have been added or removed
+	 */
+	private VolumeCurve curve()
+	{
+		VolumeCurve current = curve;
+		if(current == null)
+		{
+			current = tree.toCurve();
+			curve = current;
+		}
+		return current;
+	}
+	
+	/**
+	 * Finds the tree of break points, building it from the columns on the first change
+	 * 
+	 * @return the tree of break points of the system
+	 * @throws UnsupportedOperationException if the system is a snapshot, merges break points or holds no tank objects
+	 */
+	private BreakPointTree changeableTree() throws UnsupportedOperationException
+	{
+		if(isSnapshot())
+		{
+			throw new UnsupportedOperationException("A snapshot cannot be changed.");
+		}
+		if(tolerance > 0)
+		{
+			//The tree keeps exact break points, so a merging system could only be swept again in full
+			throw new UnsupportedOperationException("A system that merges break points cannot be changed.");
+		}
+		if(system == null)
+		{
+			throw new UnsupportedOperationException("The system was created from columns and holds no tank objects.");
+		}
+		if(tree == null)
+		{
+			tree = BreakPointTree.of(store());
+		}
+		return tree;
+	}
+	
+	/**
+	 * Finds where a height falls in rows sorted by a column
+	 * 
+	 * @param column the column the rows are sorted by
+	 * @param sorted the sorted rows
+	 * @param height the height to look for
+	 * @param inclusive True to find the first row at or above the height; false for the first row above it
+	 * @return position of that row in the sorted rows, or the number of rows if there is none
+	 */
+	private static int firstAbove(DoubleBuffer column, int[] sorted, double height, boolean inclusive)
+	{
+		int low = 0;
+		int high = sorted.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			double value = column.get(sorted[mid]);
+			if(value < height || (!inclusive && value == height))
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid;
+			}
+		}
+		return low;
+	}
+	
+	/**
+	 * @param current the columns of the tanks in the system
+	 * @return the footprint index of the system, built on first use
+	 * @throws UnsupportedOperationException if the system holds neither tank objects nor corner columns
+	 */
+	private FootprintIndex footprints(TankStore current) throws UnsupportedOperationException
+	{
+		FootprintIndex index = footprints;
+		if(index == null)
+		{
+			if(!current.hasCorners())
+			{
+				throw new UnsupportedOperationException("The system was created from columns and holds no tank corners.");
+			}
+			index = new FootprintIndex(current);
+			footprints = index;
+		}
+		return index;
+	}
+	
+	/**
+	 * Drops the columns, the volume curve and the indexes after a change so that they are
+	 * rebuilt when next needed, and clears the cached results
+	 */
+	private void changed()
+	{
+		store = null;
+		curve = null;
+		intervals = null;
+		footprints = null;
+		sweep = null;
+		bottoms = null;
+		tops = null;
+		actives = null;
+		QueryCache<Double, Double> volumes = volumeCache;
+		if(volumes != null)
+		{
+			volumes.clear();
+		}
+		QueryCache<Double, Map<Tank, Double>> levels = levelCache;
+		if(levels != null)
+		{
+			levels.clear();
+		}
+	}
+	
+	/**
+	 * @return the tanks in the system
+	 * @throws UnsupportedOperationException if the system was created from columns without tank objects
+	 */
+	private Set<Tank> tanks() throws UnsupportedOperationException
+	{
+		if(system == null)
+		{
+			throw new UnsupportedOperationException("The system was created from columns and holds no tank objects.");
+		}
+		return system;
+	}
+	
+	/**
+	 * Collects tanks one at a time for a new water system. By default the tanks are kept in a
+	 * set, as with the set constructor. A builder set to keep only columns stores the bottom,
+	 * top and base area of each tank in growing arrays instead, which uses a fixed 24 bytes a
+	 * tank and builds a column-only system; equal tanks are then not merged. A builder set to
+	 * keep the tanks off the heap stores all six corner coordinates and the base area of each
+	 * tank in direct buffers, so even the largest systems add nothing per tank to the heap
+	 * but their sort orders.
+	 */
+	public static final class Builder
+	{
+		private Set<Tank> tanks;
+		private double tolerance;
+		private double[] bottoms;
+		private double[] tops;
+		private double[] baseAreas;
+		private DoubleBuffer[] corners;
+		private DoubleBuffer directAreas;
+		private int size;
+		
+		/**
+		 * Creates a builder that keeps the tank objects
+		 */
+		public Builder()
+		{
+			tanks = new HashSet<Tank>();
+			tolerance = 0.0;
+			size = 0;
+		}
+		
+		/**
+		 * Makes the system merge break points that lie within a distance of each other. The
+		 * lowest value of each run of close bottoms and tops becomes the break point, which
+		 * keeps the maps of break points small when heights differ only by rounding error.
+		 * Each merged tank is then treated as starting or ending up to the tolerance away
+		 * from its true height. A system built with a positive tolerance cannot be changed
+		 * afterwards, and its addTank and removeTank throw UnsupportedOperationException.
+		 * 
+		 * @param maxDistance the largest distance between two values that are merged, or 0 to merge equal values only
+		 * @return this builder
+		 * @throws IllegalArgumentException if the distance is negative or not a number
+		 */
+		public Builder tolerance(double maxDistance) throws IllegalArgumentException
+		{
+			if(!(maxDistance >= 0))
+			{
+				throw new IllegalArgumentException("Tolerance must not be negative.");
+			}
+			tolerance = maxDistance;
+			return this;
+		}
+		
+		/**
+		 * Makes the builder keep only the columns of the tanks added from now on
+		 * 
+		 * @return this builder
+		 * @throws IllegalStateException if tanks have already been added
+		 */
+		public Builder columnsOnly() throws IllegalStateException
+		{
+			if(size > 0 || (tanks != null && !tanks.isEmpty()))
+			{
+				throw new IllegalStateException("Tanks have already been added.");
+			}
+			tanks = null;
+			corners = null;
+			directAreas = null;
+			bottoms = new double[16];
+			tops = new double[16];
+			baseAreas = new double[16];
+			return this;
+		}
+		
+		/**
+		 * Makes the builder keep the corners and base areas of the tanks added from now on in
+		 * columns allocated outside of the Java heap. The built system is column-only, reads
+		 * its bottoms, tops and footprints straight from those columns and keeps its volume
+		 * curve off the heap as well. The columns are reallocated with room for half as many
+		 * tanks again whenever they fill up.
+		 * 
+		 * @param expectedTanks the number of tanks to allocate room for at first
+		 * @return this builder
+		 * @throws IllegalStateException if tanks have already been added
+		 * @throws IllegalArgumentException if the expected number of tanks is negative
+		 */
+		public Builder offHeap(int expectedTanks) throws IllegalStateException, IllegalArgumentException
+		{
+			if(size > 0 || (tanks != null && !tanks.isEmpty()))
+			{
+				throw new IllegalStateException("Tanks have already been added.");
+			}
+			if(expectedTanks < 0)
+			{
+				throw new IllegalArgumentException("Expected number of tanks must not be negative.");
+			}
+			tanks = null;
+			bottoms = null;
+			tops = null;
+			baseAreas = null;
+			corners = new DoubleBuffer[6];
+			for(int c = 0; c < corners.length; c++)
+			{
+				corners[c] = TankStore.allocateDirect(Math.max(16, expectedTanks));
+			}
+			directAreas = TankStore.allocateDirect(Math.max(16, expectedTanks));
+			return this;
+		}
+		
+		/**
+		 * @param tank a tank with its coordinates set
+		 * @return this builder
+		 * @throws IllegalArgumentException if the tank's coordinates have not been set
+		 */
+		public Builder add(Tank tank) throws IllegalArgumentException
+		{
+			if(!tank.coordsSet)
+			{
+				throw new IllegalArgumentException("Tank coordinates have not been set.");
+			}
+			if(tanks != null)
+			{
+				tanks.add(tank);
+				return this;
+			}
+			if(corners != null)
+			{
+				return addCorners(tank.getBottomLeft(), tank.getTopRight());
+			}
+			if(size == bottoms.length)
+			{
+				int grown = size + (size >> 1);
+				bottoms = Arrays.copyOf(bottoms, grown);
+				tops = Arrays.copyOf(tops, grown);
+				baseAreas = Arrays.copyOf(baseAreas, grown);
+			}
+			bottoms[size] = tank.getBottom();
+			tops[size] = tank.getTop();
+			baseAreas[size] = tank.baseArea();
+			size++;
+			return this;
+		}
+		
+		/**
+		 * Adds a tank by its corners. A builder keeping only columns or keeping the tanks off
+		 * the heap stores the corners without creating a tank object, so the arrays can be
+		 * reused for the next tank.
+		 * 
+		 * @param bL The bottom left corner's set of coordinates
+		 * @param tR The top right corner's set of coordinates
+		 * @return this builder
+		 * @throws IllegalArgumentException if the coordinates are not three points with positive length
+		 */
+		public Builder add(double[] bL, double[] tR) throws IllegalArgumentException
+		{
+			if(tanks != null)
+			{
+				Tank tank = new Tank();
+				tank.setCoordinates(bL, tR);
+				tanks.add(tank);
+				return this;
+			}
+			Tank.checkCorners(bL, tR);
+			if(corners != null)
+			{
+				return addCorners(bL, tR);
+			}
+			if(size == bottoms.length)
+			{
+				int grown = size + (size >> 1);
+				bottoms = Arrays.copyOf(bottoms, grown);
+				tops = Arrays.copyOf(tops, grown);
+				baseAreas = Arrays.copyOf(baseAreas, grown);
+			}
+			bottoms[size] = bL[2];
+			tops[size] = tR[2];
+			baseAreas[size] = (tR[0] - bL[0]) * (tR[1] - bL[1]);
+			size++;
+			return this;
+		}
+		
+		/**
+		 * @return the number of tanks added so far
+		 */
+		public int size()
+		{
+			return (tanks != null ? tanks.size() : size);
+		}
+		
+		/**
+		 * Builds the water system and empties the builder. The collected set or columns are
+		 * handed to the system rather than copied.
+		 * 
+		 * @return a water system over the added tanks
+		 */
+		public WaterSystem build()
+		{
+			if(tanks != null)
+			{
+				Set<Tank> built = tanks;
+				tanks = new HashSet<Tank>();
+				return new WaterSystem(built, TankStore.load(built), tolerance);
+			}
+			if(corners != null)
+			{
+				DoubleBuffer[] columns = new DoubleBuffer[corners.length];
+				for(int c = 0; c < columns.length; c++)
+				{
+					columns[c] = limit(corners[c], size);
+				}
+				TankStore built = new TankStore(columns, limit(directAreas, size));
+				size = 0;
+				offHeap(0);
+				return new WaterSystem(null, built, tolerance);
+			}
+			TankStore built = new TankStore(DoubleBuffer.wrap(bottoms, 0, size), DoubleBuffer.wrap(tops, 0, size), DoubleBuffer.wrap(baseAreas, 0, size), null);
+			size = 0;
+			columnsOnly();
+			return new WaterSystem(null, built, tolerance);
+		}
+		
+		/**
+		 * Stores checked corners in the next row of the off-heap columns, growing them first
+		 * if they are full
+		 * 
+		 * @param bL The bottom left corner's set of coordinates
+		 * @param tR The top right corner's set of coordinates
+		 * @return this builder
+		 */
+		private Builder addCorners(double[] bL, double[] tR)
+		{
+			if(size == directAreas.capacity())
+			{
+				int grown = size + (size >> 1);
+				for(int c = 0; c < corners.length; c++)
+				{
+					corners[c] = grow(corners[c], grown);
+				}
+				directAreas = grow(directAreas, grown);
+			}
+			for(int i = 0; i < 3; i++)
+			{
+				corners[i].put(size, bL[i]);
+				corners[i+3].put(size, tR[i]);
+			}
+			directAreas.put(size, (tR[0] - bL[0]) * (tR[1] - bL[1]));
+			size++;
+			return this;
+		}
+		
+		/**
+		 * @param column an off-heap column
+		 * @param length the number of doubles in the new column, not less than the old one
+		 * @return a new off-heap column starting with the values of the old one
+		 */
+		private static DoubleBuffer grow(DoubleBuffer column, int length)
+		{
+			DoubleBuffer grown = TankStore.allocateDirect(length);
+			DoubleBuffer old = column.duplicate();
+			old.clear();
+			grown.put(old);
+			grown.clear();
+			return grown;
+		}
+		
+		/**
+		 * @param column an off-heap column
+		 * @param length the number of rows in use
+		 * @return a view of the column that ends after the rows in use
+		 */
+		private static DoubleBuffer limit(DoubleBuffer column, int length)
+		{
+			DoubleBuffer view = column.duplicate();
+			view.limit(length);
+			return view;
+		}
 	}
-}
\ No newline at end of file
+}
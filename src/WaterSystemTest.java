@@ -1,9 +1,32 @@
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
+import java.util.Random;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 
 import static org.junit.Assert.*;
 import org.junit.Before;
@@ -116,6 +139,17 @@ public class WaterSystemTest {
 		double[] e22 = {6,4,12};
 		tankE2.setCoordinates(e21, e22);
 		assertFalse(tankE.equals(tankE2));
+		assertFalse(tankE.equals("tank"));
+		assertFalse(tankE.equals(null));
+	}
+	
+	@Test
+	public void testHashCode() {
+		double[] corners = {3, 2, 4, 6, 4, 12};
+		assertEquals(Arrays.hashCode(corners), tankE.hashCode());
+		assertEquals(tankE.hashCode(), tankE.copy().hashCode());
+		assertEquals(new Tank().hashCode(), new Tank().hashCode());
+		assertEquals(new Tank(), new Tank());
 	}
 	
 	@Test
@@ -353,6 +387,29 @@ public class WaterSystemTest {
 		assertEquals(145, wS.heightToVolume(11.0), 0);
 	}
 
+	@Test
+	public void testHeightToVolumeMatchesTankLevels() {
+		WaterSystem[] systems = {wS, wSN};
+		for(WaterSystem system : systems) {
+			double bottom = system.tanksByBottom().firstKey();
+			double top = system.tanksByTop().lastKey();
+			for(double height = bottom; height <= top; height += 0.25) {
+				Map<Tank, Double> levels = system.heightToTankLevel(height);
+				double volume = 0;
+				for(Tank t : levels.keySet()) {
+					volume += levels.get(t) * t.baseArea();
+				}
+				assertEquals(volume, system.heightToVolume(height), 1e-9);
+			}
+		}
+	}
+	
+	@Test
+	public void testHeightToVolumeN() {
+		assertEquals(0, wSN.heightToVolume(-23.0), 0);
+		assertEquals(220 + 6498 + 288 + 3328, wSN.heightToVolume(20.0), 0);
+	}
+
 	@Test(expected=IllegalArgumentException.class)
 	public void testHeightToVolumeBad() {
 		wS.heightToVolume(20.0);
@@ -368,4 +425,1049 @@ public class WaterSystemTest {
 		testMap.put(tankI, 1.5);
 		assertEquals(testMap, wS.volumeToTankLevel(133.0));
 	}
-}
\ No newline at end of file
+	
+	@Test
+	public void testVolumeToHeight() {
+		assertEquals(10.5, wS.volumeToHeight(133.0), 0);
+		assertEquals(11.0, wS.volumeToHeight(145.0), 0);
+		assertEquals(-23.0 + 640.0/128, wSN.volumeToHeight(640.0), 1e-12);
+	}
+	
+	@Test
+	public void testVolumeToTankLevelRoundTrip() {
+		WaterSystem[] systems = {wS, wSN};
+		for(WaterSystem system : systems) {
+			double bottom = system.tanksByBottom().firstKey();
+			double top = system.tanksByTop().lastKey();
+			for(double height = bottom + 0.25; height < top; height += 0.25) {
+				Map<Tank, Double> expected = system.heightToTankLevel(height);
+				Map<Tank, Double> actual = system.volumeToTankLevel(system.heightToVolume(height));
+				assertEquals(expected.keySet(), actual.keySet());
+				for(Tank t : expected.keySet()) {
+					assertEquals(expected.get(t), actual.get(t), 1e-9);
+				}
+			}
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testVolumeToTankLevelBad() {
+		wS.volumeToTankLevel(1000.0);
+	}
+	
+	@Test
+	public void testActiveTanksMatchBreakPointScan() {
+		Random random = new Random(293);
+		Set<Tank> randomTanks = new HashSet<Tank>();
+		for(int i = 0; i < 200; i++) {
+			randomTanks.add(tankAt(random.nextInt(50), random.nextInt(50), random.nextInt(30), 1 + random.nextInt(5), 1 + random.nextInt(5), 1 + random.nextInt(10)));
+		}
+		WaterSystem system = new WaterSystem(randomTanks);
+		NavigableMap<Double, Set<Tank>> actives = system.activeTanks();
+		NavigableMap<Double, Double> areas = system.activeBaseArea();
+		assertEquals(actives.keySet(), areas.keySet());
+		for(Double breakPoint : actives.keySet()) {
+			Set<Tank> expected = new HashSet<Tank>();
+			double area = 0;
+			for(Tank t : randomTanks) {
+				if(t.getBottom() <= breakPoint && t.getTop() > breakPoint) {
+					expected.add(t);
+					area += t.baseArea();
+				}
+			}
+			assertEquals(expected, actives.get(breakPoint));
+			assertEquals(area, areas.get(breakPoint), 1e-9);
+		}
+	}
+	
+	@Test
+	public void testColumnStore() {
+		double[] bottoms = {4, 6, 7, 7, 9};
+		double[] tops = {12, 17, 10, 12, 13};
+		double[] areas = {6, 15, 6, 2, 1};
+		WaterSystem columns = new WaterSystem(TankStore.fromColumns(bottoms, tops, areas));
+		WaterSystem direct = new WaterSystem(TankStore.loadDirect(tanks));
+		assertEquals(wS.activeBaseArea(), columns.activeBaseArea());
+		assertEquals(wS.activeTanks(), direct.activeTanks());
+		for(double height = 4; height <= 17; height += 0.5) {
+			assertEquals(wS.heightToVolume(height), columns.heightToVolume(height), 0);
+			assertEquals(wS.heightToVolume(height), direct.heightToVolume(height), 0);
+		}
+		assertEquals(10.5, columns.volumeToHeight(133.0), 0);
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testColumnStoreWithoutTanks() {
+		double[] bottoms = {4, 6};
+		double[] tops = {12, 17};
+		double[] areas = {6, 15};
+		new WaterSystem(TankStore.fromColumns(bottoms, tops, areas)).tanksByBottom();
+	}
+	
+	@Test
+	public void testBatchConversions() {
+		double[] heights = {4, 5.5, 7, 11, 11, 16.25, 17, 9.5, 4.5};
+		double[] volumes = new double[heights.length];
+		wS.heightsToVolumes(heights, volumes);
+		for(int i = 0; i < heights.length; i++) {
+			assertEquals(wS.heightToVolume(heights[i]), volumes[i], 0);
+		}
+		double[] queries = {1, 133, 133, 145, 240, 50};
+		double[] levels = new double[queries.length];
+		wS.volumesToHeights(queries, levels);
+		for(int i = 0; i < queries.length; i++) {
+			assertEquals(wS.volumeToHeight(queries[i]), levels[i], 0);
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testBatchConversionsBad() {
+		double[] heights = {5, 20};
+		wS.heightsToVolumes(heights, new double[2]);
+	}
+	
+	@Test
+	public void testParallelMatchesSequential() {
+		Random random = new Random(64);
+		Set<Tank> randomTanks = new HashSet<Tank>();
+		for(int i = 0; i < 5000; i++) {
+			randomTanks.add(tankAt(random.nextDouble() * 100, random.nextDouble() * 100, random.nextInt(200) / 4.0,
+					0.5 + random.nextDouble(), 0.5 + random.nextDouble(), 0.25 + random.nextInt(40) / 4.0));
+		}
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			WaterSystem sequential = new WaterSystem(randomTanks);
+			WaterSystem parallel = new WaterSystem(randomTanks, pool, 100);
+			assertEquals(sequential.tanksByBottom(), parallel.tanksByBottom());
+			assertEquals(sequential.tanksByTop(), parallel.tanksByTop());
+			assertEquals(sequential.activeTanks(), parallel.activeTanks());
+			assertEquals(sequential.heightToTankLevel(20.0), parallel.heightToTankLevel(20.0));
+			NavigableMap<Double, Double> expected = sequential.activeBaseArea();
+			NavigableMap<Double, Double> actual = parallel.activeBaseArea();
+			assertEquals(expected.keySet(), actual.keySet());
+			for(Double breakPoint : expected.keySet()) {
+				assertEquals(expected.get(breakPoint), actual.get(breakPoint), 1e-6);
+			}
+			assertEquals(sequential.heightToVolume(20.0), parallel.heightToVolume(20.0), 1e-6);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSnapshot() throws InterruptedException {
+		final WaterSystem snapshot = wS.snapshot();
+		assertTrue(snapshot.isSnapshot());
+		assertFalse(wS.isSnapshot());
+		tanks.remove(tankF);
+		assertEquals(5, snapshot.heightToTankLevel(11.0).size());
+		assertEquals(145, snapshot.heightToVolume(11.0), 0);
+		
+		final boolean[] failed = new boolean[1];
+		Thread[] readers = new Thread[4];
+		for(int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread() {
+				@Override
+				public void run() {
+					for(int j = 0; j < 200; j++) {
+						if(snapshot.heightToVolume(11.0) != 145 || snapshot.activeTanks().size() != 8) {
+							failed[0] = true;
+						}
+					}
+				}
+			};
+			readers[i].start();
+		}
+		for(Thread reader : readers) {
+			reader.join();
+		}
+		assertFalse(failed[0]);
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testSnapshotIsUnmodifiable() {
+		wS.snapshot().system.add(new Tank());
+	}
+	
+	@Test
+	public void testCoordinatesAreCopied() {
+		double[] bL = {0, 0, 0};
+		double[] tR = {1, 1, 1};
+		Tank tank = new Tank();
+		tank.setCoordinates(bL, tR);
+		tR[2] = 5;
+		assertEquals(1, tank.getTop(), 0);
+		assertEquals(tank, tank.copy());
+	}
+	
+	@Test
+	public void testAddAndRemoveTanks() {
+		Random random = new Random(8);
+		Set<Tank> changing = new HashSet<Tank>(tanks);
+		WaterSystem system = new WaterSystem(changing);
+		Tank[] added = new Tank[50];
+		for(int i = 0; i < added.length; i++) {
+			added[i] = tankAt(i, 0, random.nextInt(40) / 2.0, 1 + random.nextInt(3), 2, 0.5 + random.nextInt(10));
+			assertTrue(system.addTank(added[i]));
+			changing.add(added[i]);
+			if(i % 3 == 0) {
+				assertTrue(system.removeTank(added[i / 2]));
+				changing.remove(added[i / 2]);
+			}
+			assertChangedSystemMatches(system, changing);
+		}
+		assertFalse(system.addTank(tankE));
+		assertTrue(system.removeTank(tankE));
+		changing.remove(tankE);
+		assertFalse(system.removeTank(tankE));
+		assertChangedSystemMatches(system, changing);
+		assertEquals(new WaterSystem(new HashSet<Tank>(changing)).activeTanks(), system.activeTanks());
+		system.volumeCurve();
+		assertChangedSystemMatches(system, changing);
+	}
+	
+	@Test
+	public void testSystemCopiesTheGivenSet() {
+		Set<Tank> given = new HashSet<Tank>(tanks);
+		WaterSystem system = new WaterSystem(given);
+		given.remove(tankE);
+		assertEquals(tanks, system.system);
+		assertEquals(5, system.heightToTankLevel(11.0).size());
+		assertEquals(wS.heightToVolume(11.0), system.heightToVolume(11.0));
+		Tank tank = tankAt(20, 20, 0, 1, 1, 20);
+		assertTrue(system.addTank(tank));
+		assertFalse(given.contains(tank));
+		assertEquals(6, system.heightToTankLevel(11.0).size());
+	}
+	
+	private void assertChangedSystemMatches(WaterSystem changed, Set<Tank> changing) {
+		WaterSystem rebuilt = new WaterSystem(new HashSet<Tank>(changing));
+		double bottom = rebuilt.tanksByBottom().firstKey();
+		double top = rebuilt.tanksByTop().lastKey();
+		for(double height = bottom; height <= top; height += 0.75) {
+			double volume = rebuilt.heightToVolume(height);
+			assertEquals(volume, changed.heightToVolume(height), 1e-9);
+			if(volume > 0 && volume < rebuilt.volumeCurve().getMaxVolume()) {
+				assertEquals(rebuilt.volumeToHeight(volume), changed.volumeToHeight(volume), 1e-9);
+			}
+		}
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testSnapshotCannotAddTanks() {
+		Tank tank = new Tank();
+		double[] bL = {0, 0, 0};
+		double[] tR = {1, 1, 1};
+		tank.setCoordinates(bL, tR);
+		wS.snapshot().addTank(tank);
+	}
+	
+	@Test
+	public void testFillSimulation() {
+		final Set<Tank> wet = new HashSet<Tank>();
+		final Set<Tank> full = new HashSet<Tank>();
+		final double[] lastLevel = new double[1];
+		FillSimulation simulation = new FillSimulation(wS, 0.0);
+		double[] flows = {30, 30, 60, 60, 60, 30, -45, -100, -120, -10};
+		simulation.run(flows, new FillListener() {
+			@Override
+			public void crossedBottom(int step, Tank tank, boolean rising) {
+				assertTrue(rising ? wet.add(tank) : wet.remove(tank));
+			}
+			
+			@Override
+			public void crossedTop(int step, Tank tank, boolean rising) {
+				assertTrue(rising ? full.add(tank) : full.remove(tank));
+			}
+			
+			@Override
+			public void stepped(int step, double volume, double level, double activeArea) {
+				lastLevel[0] = level;
+				assertEquals(volume, wS.heightToVolume(level), 1e-9);
+				Map<Tank, Double> levels = wS.heightToTankLevel(level);
+				for(Tank t : tanks) {
+					assertEquals(levels.get(t) > 0, wet.contains(t));
+					assertEquals(levels.get(t) == t.getHeight(), full.contains(t));
+				}
+				assertEquals(wS.activeBaseArea().floorEntry(level).getValue(), activeArea, 0);
+			}
+		});
+		assertEquals(10, simulation.getSteps());
+		assertEquals(0, simulation.getVolume(), 0);
+		assertEquals(4, lastLevel[0], 0);
+		assertTrue(wet.isEmpty());
+	}
+	
+	@Test
+	public void testTankLevels() {
+		TankLevels levels = wS.heightToLevels(11.0);
+		assertEquals(wS.heightToTankLevel(11.0), levels.toMap());
+		assertEquals(7.0, levels.levelOf(tankE), 0);
+		Set<Tank> partial = new HashSet<Tank>();
+		for(Iterator<Tank> it = levels.partiallyFilled(); it.hasNext();) {
+			partial.add(it.next());
+		}
+		Set<Tank> expected = new HashSet<Tank>();
+		expected.add(tankE);
+		expected.add(tankF);
+		expected.add(tankH);
+		expected.add(tankI);
+		assertEquals(expected, partial);
+		assertEquals(wS.volumeToTankLevel(133.0), wS.volumeToLevels(133.0).toMap());
+		assertFalse(wS.heightToLevels(17.0).partiallyFilled().hasNext());
+		assertFalse(wS.heightToLevels(4.0).partiallyFilled().hasNext());
+	}
+	
+	@Test
+	public void testTankLevelsMatchScan() {
+		Random random = new Random(12);
+		Set<Tank> randomTanks = new HashSet<Tank>();
+		for(int i = 0; i < 1000; i++) {
+			randomTanks.add(tankAt(i, 0, random.nextInt(100), 1, 1, 1 + random.nextInt(20)));
+		}
+		WaterSystem system = new WaterSystem(randomTanks);
+		for(double height = -1; height < 125; height += 0.5) {
+			Set<Tank> expected = new HashSet<Tank>();
+			for(Tank t : randomTanks) {
+				if(t.getBottom() < height && t.getTop() > height) {
+					expected.add(t);
+				}
+			}
+			Set<Tank> partial = new HashSet<Tank>();
+			for(Iterator<Tank> it = system.heightToLevels(height).partiallyFilled(); it.hasNext();) {
+				assertTrue(partial.add(it.next()));
+			}
+			assertEquals(expected, partial);
+		}
+	}
+	
+	@Test
+	public void testTankFileRoundTrip() throws IOException {
+		File file = File.createTempFile("tanks", ".bin");
+		file.deleteOnExit();
+		TankFile.write(wS, file);
+		WaterSystem loaded = TankFile.load(file);
+		assertEquals(wS.volumeCurve().getMaxVolume(), loaded.volumeCurve().getMaxVolume(), 0.0);
+		assertEquals(wS.heightToVolume(11.0), loaded.heightToVolume(11.0), 1e-9);
+		assertEquals(10.5, loaded.volumeToHeight(133.0), 1e-9);
+		assertEquals(wS.activeBaseArea(), loaded.activeBaseArea());
+		assertEquals(tanks, TankFile.readTanks(file));
+	}
+	
+	@Test
+	public void testTankFileRewrittenInPlace() throws IOException {
+		File file = File.createTempFile("tanks", ".bin");
+		file.deleteOnExit();
+		TankFile.write(wS, file);
+		WaterSystem loaded = TankFile.load(file);
+		TankFile.write(loaded, file);
+		assertEquals(wS.getMaxVolume(), loaded.getMaxVolume(), 0.0);
+		WaterSystem reloaded = TankFile.load(file);
+		assertEquals(wS.getMaxVolume(), reloaded.getMaxVolume(), 0.0);
+		assertEquals(wS.heightToVolume(11.0), reloaded.heightToVolume(11.0), 1e-9);
+		assertEquals(tanks, TankFile.readTanks(file));
+	}
+	
+	@Test(expected=IOException.class)
+	public void testTankFileRejectsOtherFiles() throws IOException {
+		File file = File.createTempFile("tanks", ".bin");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(new byte[64]);
+		out.close();
+		TankFile.load(file);
+	}
+	
+	@Test
+	public void testTankImporter() throws IOException {
+		File file = File.createTempFile("tanks", ".csv");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(("x0,y0,z0,x1,y1,z1\n"
+				+ "3,2,4,6,4,12\n"
+				+ "# comment\n"
+				+ "5.0; 3; 6; 10; 6; 1.7e1\r\n"
+				+ "\n"
+				+ "2 6 7 5 8 10\n"
+				+ "1,2,3,4,5\n"
+				+ "1,10,7,2,12,12\n"
+				+ "1,1,5,0,2,6\n"
+				+ "0,0,9,1,1,abc\n"
+				+ "0,0,9,1,1,13").getBytes("US-ASCII"));
+		out.close();
+		final Map<Long, String> invalid = new HashMap<Long, String>();
+		WaterSystem.Builder builder = new WaterSystem.Builder();
+		TankImporter importer = new TankImporter(builder, new ImportListener() {
+			@Override
+			public void invalidRow(long line, String reason) {
+				invalid.put(line, reason);
+			}
+		});
+		assertEquals(5, importer.importFile(file));
+		assertEquals(11, importer.getLines());
+		assertEquals(3, importer.getRejected());
+		assertEquals(new HashSet<Long>(Arrays.asList(7L, 9L, 10L)), invalid.keySet());
+		assertEquals("Coordinates must have positive length.", invalid.get(9L));
+		WaterSystem imported = builder.build();
+		assertEquals(wS.heightToTankLevel(11.0), imported.heightToTankLevel(11.0));
+		assertEquals(0, builder.size());
+	}
+	
+	@Test
+	public void testTankImporterParsesLikeParseDouble() throws IOException {
+		Random random = new Random(14);
+		StringBuilder text = new StringBuilder();
+		double[][] rows = new double[200][];
+		for(int i = 0; i < rows.length; i++) {
+			double x = (random.nextDouble() - 0.5) * Math.pow(10, random.nextInt(40) - 20);
+			double y = random.nextInt(100000) / 1000.0;
+			double z = -random.nextDouble() * 1000;
+			rows[i] = new double[] {x, y, z, x + Math.abs(x) + 1, y + 0.125, z + 1e-3};
+			for(int f = 0; f < 6; f++) {
+				text.append(f > 0 ? "," : "").append(rows[i][f]);
+			}
+			text.append('\n');
+		}
+		WaterSystem.Builder builder = new WaterSystem.Builder();
+		TankImporter importer = new TankImporter(builder, new ImportListener() {
+			@Override
+			public void invalidRow(long line, String reason) {
+				fail(line + ": " + reason);
+			}
+		});
+		importer.importFrom(Channels.newChannel(new ByteArrayInputStream(text.toString().getBytes("US-ASCII"))));
+		Set<Tank> expected = new HashSet<Tank>();
+		for(double[] row : rows) {
+			Tank t = new Tank();
+			t.setCoordinates(Arrays.copyOfRange(row, 0, 3), Arrays.copyOfRange(row, 3, 6));
+			expected.add(t);
+		}
+		assertEquals(expected, builder.build().system);
+	}
+	
+	@Test
+	public void testColumnBuilder() {
+		WaterSystem.Builder builder = new WaterSystem.Builder().columnsOnly();
+		for(int i = 0; i < 3; i++) {
+			for(Tank t : tanks) {
+				builder.add(t);
+			}
+		}
+		assertEquals(15, builder.size());
+		WaterSystem columns = builder.build();
+		assertEquals(3 * wS.volumeCurve().getMaxVolume(), columns.volumeCurve().getMaxVolume(), 1e-9);
+		assertEquals(wS.volumeToHeight(133.0), columns.volumeToHeight(3 * 133.0), 1e-9);
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testFillSimulationNeedsTankObjects() {
+		WaterSystem.Builder builder = new WaterSystem.Builder().columnsOnly();
+		for(Tank t : tanks) {
+			builder.add(t);
+		}
+		new FillSimulation(builder.build(), 1.0);
+	}
+	
+	@Test
+	public void testTankFileWriteLeavesFileAloneWithoutCorners() throws IOException {
+		File file = File.createTempFile("tanks", ".bin");
+		file.deleteOnExit();
+		TankFile.write(wS, file);
+		long length = file.length();
+		WaterSystem.Builder builder = new WaterSystem.Builder().columnsOnly();
+		for(Tank t : tanks) {
+			builder.add(t);
+		}
+		try {
+			TankFile.write(builder.build(), file);
+			fail("Expected a system without corners to be rejected");
+		}
+		catch(UnsupportedOperationException ex) {
+			assertEquals(length, file.length());
+			assertEquals(tanks, TankFile.readTanks(file));
+		}
+	}
+	
+	@Test
+	public void testQueryCache() {
+		Set<Tank> changing = new HashSet<Tank>(tanks);
+		WaterSystem cached = new WaterSystem(changing);
+		cached.setCacheSize(2);
+		assertEquals(wS.heightToVolume(11.0), cached.heightToVolume(11.0));
+		assertEquals(wS.heightToVolume(11.0), cached.heightToVolume(11.0));
+		assertEquals(wS.volumeToTankLevel(133.0), cached.volumeToTankLevel(133.0));
+		Map<Tank, Double> levels = cached.volumeToTankLevel(133.0);
+		levels.clear();
+		assertEquals(wS.volumeToTankLevel(133.0), cached.volumeToTankLevel(133.0));
+		assertEquals(3, cached.getCacheHits());
+		assertEquals(2, cached.getCacheMisses());
+		cached.heightToVolume(5.0);
+		cached.heightToVolume(6.0);
+		cached.heightToVolume(11.0);
+		assertEquals(3, cached.getCacheHits());
+		assertEquals(5, cached.getCacheMisses());
+		Tank tank = new Tank();
+		double[] bL = {20, 20, 0};
+		double[] tR = {21, 21, 20};
+		tank.setCoordinates(bL, tR);
+		cached.addTank(tank);
+		assertEquals(wS.heightToVolume(11.0) + 11.0, cached.heightToVolume(11.0), 1e-9);
+		assertEquals(6, cached.getCacheMisses());
+		cached.setCacheSize(0);
+		assertEquals(0, cached.getCacheHits());
+	}
+	
+	@Test
+	public void testMetricsRecorder() throws Exception {
+		MetricsRecorder recorder = new MetricsRecorder();
+		wS.setMetrics(recorder);
+		wS.heightToVolume(11.0);
+		wS.heightToVolume(12.0);
+		wS.volumeToTankLevel(133.0);
+		wS.activeTanks();
+		wS.setMetrics(null);
+		wS.heightToVolume(11.0);
+		assertEquals(2, recorder.calls(SystemMetrics.Query.HEIGHT_TO_VOLUME));
+		assertEquals(0, recorder.calls(SystemMetrics.Query.VOLUME_TO_HEIGHT));
+		assertEquals(0, recorder.calls(SystemMetrics.Query.HEIGHT_TO_TANK_LEVEL));
+		assertEquals(1, recorder.calls(SystemMetrics.Query.VOLUME_TO_TANK_LEVEL));
+		assertEquals(5, recorder.tanksScanned(SystemMetrics.Query.VOLUME_TO_TANK_LEVEL));
+		assertEquals(10, recorder.tanksScanned(SystemMetrics.Query.ACTIVE_TANKS));
+		assertEquals(wS.activeTanks().size() + 2, recorder.collectionsBuilt(SystemMetrics.Query.ACTIVE_TANKS));
+		Map<String, Long> snapshot = recorder.snapshot();
+		assertEquals(Long.valueOf(2), snapshot.get("heightToVolume.calls"));
+		assertFalse(snapshot.containsKey("tanksByBottom.calls"));
+		long bucketed = 0;
+		for(Map.Entry<String, Long> entry : snapshot.entrySet()) {
+			if(entry.getKey().startsWith("heightToVolume.latency.")) {
+				bucketed += entry.getValue();
+			}
+		}
+		assertEquals(2, bucketed);
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = recorder.register("tanks:type=WaterSystemMetrics,name=test");
+		try {
+			Object counters = server.getAttribute(name, "Counters");
+			assertTrue(counters instanceof TabularData);
+			assertEquals(snapshot.size(), ((TabularData)counters).size());
+		}
+		finally {
+			server.unregisterMBean(name);
+		}
+		recorder.reset();
+		assertTrue(recorder.snapshot().isEmpty());
+	}
+	
+	@Test
+	public void testRegionQueriesMatchScan() {
+		Random random = new Random(17);
+		Set<Tank> randomTanks = new HashSet<Tank>();
+		for(int i = 0; i < 500; i++) {
+			randomTanks.add(randomTank(random));
+		}
+		WaterSystem system = new WaterSystem(randomTanks);
+		for(int q = 0; q < 50; q++) {
+			double x = random.nextDouble() * 100;
+			double y = random.nextDouble() * 100;
+			Region region = new Region(x, y, x + random.nextDouble() * 30 + 0.1, y + random.nextDouble() * 30 + 0.1);
+			double h = 1 + random.nextDouble() * 55;
+			Set<Tank> expected = new HashSet<Tank>();
+			double volume = 0.0;
+			Set<Tank> clipped = new HashSet<Tank>();
+			for(Tank t : randomTanks) {
+				double[] bL = t.getBottomLeft();
+				double[] tR = t.getTopRight();
+				double width = Math.min(tR[0], region.getMaxX()) - Math.max(bL[0], region.getMinX());
+				double depth = Math.min(tR[1], region.getMaxY()) - Math.max(bL[1], region.getMinY());
+				if(width > 0 && depth > 0) {
+					expected.add(t);
+					volume += width * depth * Math.max(0, Math.min(h, t.getTop()) - t.getBottom());
+					Tank c = new Tank();
+					c.setCoordinates(new double[] {0, 0, t.getBottom()}, new double[] {width, depth, t.getTop()});
+					clipped.add(c);
+				}
+			}
+			assertEquals(expected, system.tanksInRegion(region));
+			assertEquals(volume, system.heightToVolume(h, region), 1e-9);
+			NavigableMap<Double, Double> areas = system.activeBaseArea(region);
+			NavigableMap<Double, Double> expectedAreas = new WaterSystem(clipped).activeBaseArea();
+			assertEquals(expectedAreas.keySet(), areas.keySet());
+			for(Double key : areas.keySet()) {
+				assertEquals(expectedAreas.get(key), areas.get(key), 1e-9);
+			}
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testRegionMustHaveArea() {
+		new Region(1, 1, 1, 2);
+	}
+	
+	@Test
+	public void testTankNetworkComponents() {
+		Set<Tank> all = new HashSet<Tank>(tanks);
+		all.addAll(tanksN);
+		TankNetwork network = new TankNetwork(all);
+		assertEquals(9, network.componentCount());
+		Tank[] plain = {tankE, tankF, tankG, tankH, tankI};
+		Tank[] negative = {tankNE, tankNF, tankNG, tankNH};
+		for(int i = 1; i < plain.length; i++) {
+			assertTrue(network.connect(plain[i-1], plain[i]));
+		}
+		for(int i = 1; i < negative.length; i++) {
+			assertTrue(network.connect(negative[0], negative[i]));
+		}
+		assertFalse(network.connect(tankE, tankI));
+		assertEquals(2, network.componentCount());
+		assertTrue(network.connected(tankF, tankH));
+		assertFalse(network.connected(tankF, tankNH));
+		assertEquals(tanks, network.componentOf(tankG).system);
+		assertEquals(wSN.volumeCurve().getMaxVolume(), network.componentOf(tankNF).volumeCurve().getMaxVolume(), 1e-9);
+		
+		double[] volumes = new double[2];
+		volumes[network.componentIndex(tankE)] = 133.0;
+		volumes[network.componentIndex(tankNE)] = 0.0;
+		ForkJoinPool pool = new ForkJoinPool(2);
+		try {
+			Map<Tank, Double> levels = network.volumesToTankLevel(volumes, pool);
+			Map<Tank, Double> expected = new HashMap<Tank, Double>(wS.volumeToTankLevel(133.0));
+			for(Tank t : tanksN) {
+				expected.put(t, 0.0);
+			}
+			assertEquals(expected, levels);
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+	
+	@Test(expected=IllegalArgumentException.class)
+	public void testTankNetworkRejectsUnknownTanks() {
+		new TankNetwork(tanks).connect(tankE, tankNE);
+	}
+	
+	@Test
+	public void testQueryServerOnLocalhost() throws IOException {
+		QueryServer server = new QueryServer(2);
+		server.register("plant", wS.snapshot());
+		try {
+			int port = server.start(0);
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+			try {
+				Writer out = new OutputStreamWriter(socket.getOutputStream(), "UTF-8");
+				out.write("plant heightToVolume 12\nplant heightToVolume 11\nplant heightToVolume 99\n"
+						+ "plant activeBaseArea\nplant volumeToTankLevel 133\nother activeBaseArea\nplant heightToVolume x\n");
+				out.flush();
+				BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), "UTF-8"));
+				assertEquals("OK " + wS.heightToVolume(12.0), in.readLine());
+				assertEquals("OK " + wS.heightToVolume(11.0), in.readLine());
+				assertTrue(in.readLine().startsWith("ERR "));
+				String areas = in.readLine();
+				assertTrue(areas.startsWith("OK 4.0=6.0;"));
+				String levels = in.readLine();
+				assertTrue(levels.startsWith("OK "));
+				assertEquals(5, levels.split(";").length);
+				assertTrue(levels.contains("3.0,2.0,4.0,6.0,4.0,12.0=" + wS.volumeToTankLevel(133.0).get(tankE)));
+				assertEquals("ERR Unknown system other.", in.readLine());
+				assertEquals("ERR Argument is not a number.", in.readLine());
+			}
+			finally {
+				socket.close();
+			}
+		}
+		finally {
+			server.close();
+		}
+	}
+	
+	@Test
+	public void testQueryServerIdleClientsDoNotBlockOthers() throws IOException {
+		QueryServer server = new QueryServer(1);
+		server.register("plant", wS.snapshot());
+		List<Socket> sockets = new ArrayList<Socket>();
+		try {
+			int port = server.start(0);
+			for(int i = 0; i < 3; i++) {
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				socket.setSoTimeout(5000);
+				sockets.add(socket);
+			}
+			Socket active = sockets.get(2);
+			Writer out = new OutputStreamWriter(active.getOutputStream(), "UTF-8");
+			out.write("plant heightToVolume 5\nplant heightToVolume 12");
+			out.flush();
+			active.shutdownOutput();
+			BufferedReader in = new BufferedReader(new InputStreamReader(active.getInputStream(), "UTF-8"));
+			assertEquals("OK " + wS.heightToVolume(5.0), in.readLine());
+			assertEquals("OK " + wS.heightToVolume(12.0), in.readLine());
+			assertNull(in.readLine());
+		}
+		finally {
+			for(Socket socket : sockets) {
+				socket.close();
+			}
+			server.close();
+		}
+	}
+	
+	@Test
+	public void testToleranceMergesBreakPoints() {
+		Set<Tank> noisy = new HashSet<Tank>();
+		for(int i = 0; i < 20; i++) {
+			double noise = i * 1e-12;
+			Tank t = new Tank();
+			t.setCoordinates(new double[] {i, 0, noise}, new double[] {i + 1, 1, 10 - noise});
+			noisy.add(t);
+		}
+		assertEquals(40, new WaterSystem(noisy).activeTanks().size());
+		WaterSystem.Builder builder = new WaterSystem.Builder().tolerance(1e-9);
+		for(Tank t : noisy) {
+			builder.add(t);
+		}
+		WaterSystem merged = builder.build();
+		NavigableMap<Double, Set<Tank>> actives = merged.activeTanks();
+		assertEquals(2, actives.size());
+		assertEquals(noisy, actives.firstEntry().getValue());
+		assertEquals(200.0, merged.volumeCurve().getMaxVolume(), 1e-9);
+		assertEquals(5.0, merged.volumeToHeight(100.0), 1e-9);
+		assertEquals(2, merged.snapshot().activeBaseArea().size());
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testToleranceSystemCannotAddTanks() {
+		WaterSystem.Builder builder = new WaterSystem.Builder().tolerance(1e-9);
+		for(Tank t : tanks) {
+			builder.add(t);
+		}
+		builder.build().addTank(tankAt(20, 20, 0, 1, 1, 20));
+	}
+	
+	@Test
+	public void testCompensatedSum() {
+		CompensatedSum sum = new CompensatedSum();
+		double plain = 1e16;
+		sum.add(1e16);
+		for(int i = 0; i < 10000; i++) {
+			sum.add(1.0);
+			plain += 1.0;
+		}
+		sum.add(-1e16);
+		assertEquals(1e16, plain, 0.0);
+		assertEquals(10000.0, sum.value(), 0.0);
+	}
+	
+	@Test
+	public void testBreakPointIndexesMatchMaps() {
+		for(WaterSystem system : new WaterSystem[] {wS, wSN}) {
+			assertEquals(system.tanksByBottom(), toMap(system.bottomIndex()));
+			assertEquals(system.tanksByTop(), toMap(system.topIndex()));
+			assertEquals(system.activeTanks(), toMap(system.activeIndex()));
+			VolumeCurve curve = system.volumeCurve();
+			BreakPointIndex actives = system.activeIndex();
+			assertEquals(curve.size(), actives.size());
+			for(int i = 0; i < curve.size(); i++) {
+				assertEquals(curve.breakPoint(i), actives.key(i), 0.0);
+				double area = 0.0;
+				for(int j = 0; j < actives.count(i); j++) {
+					area += actives.store().baseArea(actives.row(i, j));
+				}
+				assertEquals(curve.activeArea(i), area, 1e-9);
+			}
+		}
+		BreakPointIndex bottoms = wS.bottomIndex();
+		assertEquals(-1, bottoms.indexOf(5.0));
+		int seven = bottoms.indexOf(7.0);
+		assertEquals(2, bottoms.count(seven));
+	}
+	
+	private static NavigableMap<Double, Set<Tank>> toMap(BreakPointIndex index) {
+		NavigableMap<Double, Set<Tank>> map = new TreeMap<Double, Set<Tank>>();
+		for(int i = 0; i < index.size(); i++) {
+			Set<Tank> group = new HashSet<Tank>();
+			for(int j = 0; j < index.count(i); j++) {
+				group.add(index.tank(i, j));
+			}
+			map.put(index.key(i), group);
+		}
+		return map;
+	}
+	
+	@Test
+	public void testDerivedIndexesAreKeptUntilChange() {
+		WaterSystem system = new WaterSystem(new HashSet<Tank>(tanks));
+		BreakPointIndex bottoms = system.bottomIndex();
+		BreakPointIndex actives = system.activeIndex();
+		assertSame(bottoms, system.bottomIndex());
+		assertSame(system.topIndex(), system.topIndex());
+		assertSame(actives, system.activeIndex());
+		assertEquals(4.0, system.getLowestBottom(), 0.0);
+		assertEquals(17.0, system.getHighestTop(), 0.0);
+		assertEquals(245.0, system.getMaxVolume(), 1e-9);
+		Tank tank = new Tank();
+		tank.setCoordinates(new double[] {20, 20, 1}, new double[] {21, 22, 30});
+		system.addTank(tank);
+		assertEquals(245.0 + 58.0, system.getMaxVolume(), 1e-9);
+		assertNotSame(bottoms, system.bottomIndex());
+		assertEquals(system.tanksByBottom(), toMap(system.bottomIndex()));
+		assertEquals(system.activeTanks(), toMap(system.activeIndex()));
+		assertEquals(1.0, system.getLowestBottom(), 0.0);
+		assertEquals(30.0, system.getHighestTop(), 0.0);
+	}
+	
+	@Test
+	public void testExtremesAfterChangeComeFromTree() {
+		WaterSystem system = new WaterSystem(new HashSet<Tank>(tanks));
+		system.addTank(tankAt(20, 20, 1, 1, 2, 29));
+		assertEquals(1.0, system.getLowestBottom(), 0.0);
+		assertEquals(30.0, system.getHighestTop(), 0.0);
+		for(Tank t : tanks) {
+			system.removeTank(t);
+		}
+		assertEquals(1.0, system.getLowestBottom(), 0.0);
+		assertEquals(30.0, system.getHighestTop(), 0.0);
+		system.removeTank(tankAt(20, 20, 1, 1, 2, 29));
+		try {
+			system.getHighestTop();
+			fail("Expected an empty system to have no highest top");
+		}
+		catch(IllegalStateException ex) {
+			assertEquals("The water system holds no tanks.", ex.getMessage());
+		}
+	}
+	
+	@Test
+	public void testScenariosMatchRebuiltSystems() {
+		Random random = new Random(23);
+		Set<Tank> baseTanks = new HashSet<Tank>();
+		for(int i = 0; i < 200; i++) {
+			baseTanks.add(randomTank(random));
+		}
+		WaterSystem base = new WaterSystem(baseTanks).snapshot();
+		Tank[] baseArray = baseTanks.toArray(new Tank[baseTanks.size()]);
+		List<Scenario> scenarios = new ArrayList<Scenario>();
+		List<WaterSystem> rebuilt = new ArrayList<WaterSystem>();
+		for(int v = 0; v < 20; v++) {
+			Scenario scenario = new Scenario(base);
+			Set<Tank> variant = new HashSet<Tank>(baseTanks);
+			for(int c = 0; c < 5; c++) {
+				Tank added = randomTank(random);
+				assertTrue(scenario.addTank(added));
+				variant.add(added);
+				Tank removed = baseArray[random.nextInt(baseArray.length)];
+				assertEquals(variant.remove(removed), scenario.removeTank(removed));
+			}
+			Tank resized = baseArray[random.nextInt(baseArray.length)];
+			Tank bigger = new Tank();
+			double[] bL = resized.getBottomLeft();
+			double[] tR = resized.getTopRight();
+			tR[2] += 3;
+			bigger.setCoordinates(bL, tR);
+			if(scenario.resizeTank(resized, bigger)) {
+				variant.remove(resized);
+				variant.add(bigger);
+			}
+			scenarios.add(scenario);
+			rebuilt.add(new WaterSystem(variant));
+		}
+		double[] volumes;
+		List<Map<Tank, Double>> levels;
+		ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			volumes = Scenario.heightToVolume(scenarios, 30.0, pool);
+			levels = Scenario.volumeToTankLevel(scenarios, 5000.0, pool);
+		}
+		finally {
+			pool.shutdown();
+		}
+		for(int v = 0; v < scenarios.size(); v++) {
+			Scenario scenario = scenarios.get(v);
+			WaterSystem expected = rebuilt.get(v);
+			assertEquals(expected.getMaxVolume(), scenario.getMaxVolume(), 1e-6);
+			assertEquals(expected.heightToVolume(30.0), volumes[v], 1e-6);
+			for(int q = 0; q < 20; q++) {
+				double h = expected.getLowestBottom() + random.nextDouble() * (expected.getHighestTop() - expected.getLowestBottom());
+				assertEquals(expected.heightToVolume(h), scenario.heightToVolume(h), 1e-6);
+				double vol = random.nextDouble() * expected.getMaxVolume();
+				assertEquals(expected.volumeToHeight(vol), scenario.volumeToHeight(vol), 1e-6);
+			}
+			Map<Tank, Double> expectedLevels = expected.volumeToTankLevel(5000.0);
+			assertEquals(expectedLevels.keySet(), levels.get(v).keySet());
+			for(Tank t : expectedLevels.keySet()) {
+				assertEquals(expectedLevels.get(t), levels.get(v).get(t), 1e-6);
+			}
+		}
+	}
+	
+	@Test
+	public void testScenarioRangeSpansGapToAddedTank() {
+		Tank low = new Tank();
+		low.setCoordinates(new double[] {0, 0, 0}, new double[] {1, 1, 10});
+		Tank high = new Tank();
+		high.setCoordinates(new double[] {0, 0, 20}, new double[] {1, 1, 30});
+		Scenario scenario = new Scenario(new WaterSystem(new HashSet<Tank>(Arrays.asList(low))));
+		scenario.addTank(high);
+		WaterSystem rebuilt = new WaterSystem(new HashSet<Tank>(Arrays.asList(low, high)));
+		assertEquals(rebuilt.heightToVolume(15.0), scenario.heightToVolume(15.0), 1e-9);
+		assertEquals(rebuilt.heightToVolume(30.0), scenario.heightToVolume(30.0), 1e-9);
+	}
+	
+	@Test
+	public void testScenarioRangeShrinksWhenExtremeTankIsRemoved() {
+		Tank low = new Tank();
+		low.setCoordinates(new double[] {0, 0, 0}, new double[] {1, 1, 5});
+		Tank high = new Tank();
+		high.setCoordinates(new double[] {0, 0, 10}, new double[] {1, 1, 20});
+		Scenario scenario = new Scenario(new WaterSystem(new HashSet<Tank>(Arrays.asList(low, high))));
+		scenario.removeTank(low);
+		assertEquals(5.0, scenario.heightToVolume(15.0), 1e-9);
+		try {
+			scenario.heightToVolume(2.0);
+			fail("Expected a height below the lowest remaining bottom to be rejected");
+		}
+		catch(IllegalArgumentException ex) {
+			assertEquals("Water height is outside the range of the water system.", ex.getMessage());
+		}
+		scenario.addTank(low);
+		assertEquals(5.0, scenario.heightToVolume(5.0), 1e-9);
+	}
+	
+	private static Tank randomTank(Random random) {
+		return tankAt(random.nextDouble() * 100, random.nextDouble() * 100, random.nextDouble() * 50,
+				0.5 + random.nextDouble() * 5, 0.5 + random.nextDouble() * 5, 1 + random.nextDouble() * 10);
+	}
+	
+	private static Tank tankAt(double x, double y, double z, double width, double depth, double height) {
+		Tank t = new Tank();
+		t.setCoordinates(new double[] {x, y, z}, new double[] {x + width, y + depth, z + height});
+		return t;
+	}
+	
+	@Test
+	public void testCrossingsMatchFillSimulation() {
+		double[] flows = {30, 30, 60, 60, 60, -45, -100, -120, 20};
+		final List<String> simulated = new ArrayList<String>();
+		FillSimulation simulation = new FillSimulation(wS, 1.0);
+		double volume = 1.0;
+		for(double flow : flows) {
+			simulated.clear();
+			simulation.step(flow, new FillListener() {
+				@Override
+				public void crossedBottom(int step, Tank tank, boolean rising) {
+					simulated.add(tank.hashCode() + " bottom " + rising);
+				}
+				
+				@Override
+				public void crossedTop(int step, Tank tank, boolean rising) {
+					simulated.add(tank.hashCode() + " top " + rising);
+				}
+				
+				@Override
+				public void stepped(int step, double volume, double level, double activeArea) {
+				}
+			});
+			List<String> listed = new ArrayList<String>();
+			for(Crossing c : wS.crossingsBetweenVolumes(volume, simulation.getVolume())) {
+				listed.add(c.getTank().hashCode() + (c.isTop() ? " top " : " bottom ") + c.isRising());
+			}
+			assertEquals(simulated, listed);
+			volume = simulation.getVolume();
+		}
+	}
+	
+	@Test
+	public void testCrossingsMatchLevelDiff() {
+		List<Crossing> crossings = wS.crossingsBetweenHeights(6.0, 12.0);
+		Map<Tank, Double> before = wS.heightToTankLevel(6.0);
+		Map<Tank, Double> after = wS.heightToTankLevel(12.0);
+		Set<Tank> expected = new HashSet<Tank>();
+		for(Tank t : tanks) {
+			if((before.get(t) > 0) != (after.get(t) > 0) || (before.get(t) == t.getHeight()) != (after.get(t) == t.getHeight())) {
+				expected.add(t);
+			}
+		}
+		Set<Tank> crossed = new HashSet<Tank>();
+		double last = Double.NEGATIVE_INFINITY;
+		for(Crossing c : crossings) {
+			assertTrue(c.isRising());
+			assertTrue(c.getHeight() >= last);
+			last = c.getHeight();
+			crossed.add(c.getTank());
+		}
+		assertEquals(expected, crossed);
+		assertEquals(7, crossings.size());
+		assertEquals(tankF, crossings.get(0).getTank());
+		assertEquals(tankI, crossings.get(3).getTank());
+		assertTrue(crossings.get(4).isTop());
+		assertEquals(tankG, crossings.get(4).getTank());
+		List<Crossing> falling = wS.crossingsBetweenHeights(12.0, 6.0);
+		List<Tank> reversed = tanksOf(crossings);
+		Collections.reverse(reversed);
+		assertEquals(reversed, tanksOf(falling));
+		assertTrue(wS.crossingsBetweenHeights(11.0, 11.0).isEmpty());
+	}
+	
+	@Test
+	public void testOffHeapBuilderMatchesHeapSystem() throws IOException {
+		Random random = new Random(25);
+		Set<Tank> randomTanks = new HashSet<Tank>();
+		WaterSystem.Builder builder = new WaterSystem.Builder().offHeap(2);
+		for(int i = 0; i < 300; i++) {
+			Tank t = randomTank(random);
+			if(randomTanks.add(t)) {
+				if(i % 2 == 0) {
+					builder.add(t.getBottomLeft(), t.getTopRight());
+				}
+				else {
+					builder.add(t);
+				}
+			}
+		}
+		assertEquals(randomTanks.size(), builder.size());
+		WaterSystem offHeap = builder.build();
+		WaterSystem heap = new WaterSystem(randomTanks);
+		assertTrue(offHeap.tankStore().isDirect());
+		assertTrue(offHeap.tankStore().hasCorners());
+		assertEquals(heap.getMaxVolume(), offHeap.getMaxVolume(), 1e-9);
+		assertEquals(heap.activeBaseArea().keySet(), offHeap.activeBaseArea().keySet());
+		File file = File.createTempFile("tanks", ".bin");
+		file.deleteOnExit();
+		TankFile.write(offHeap, file);
+		WaterSystem loaded = TankFile.load(file);
+		assertEquals(randomTanks, TankFile.readTanks(file));
+		for(int q = 0; q < 30; q++) {
+			double h = 1 + random.nextDouble() * 55;
+			assertEquals(heap.heightToVolume(h), offHeap.heightToVolume(h), 1e-9);
+			double x = random.nextDouble() * 100;
+			double y = random.nextDouble() * 100;
+			Region region = new Region(x, y, x + random.nextDouble() * 30 + 0.1, y + random.nextDouble() * 30 + 0.1);
+			assertEquals(heap.heightToVolume(h, region), offHeap.heightToVolume(h, region), 1e-9);
+			assertEquals(heap.heightToVolume(h, region), loaded.heightToVolume(h, region), 1e-9);
+			assertEquals(heap.activeBaseArea(region).keySet(), offHeap.activeBaseArea(region).keySet());
+		}
+		try {
+			builder.add(new double[] {0, 0, 0}, new double[] {1, 0, 1});
+			fail("Expected a tank without width to be rejected");
+		}
+		catch(IllegalArgumentException ex) {
+			assertEquals("Coordinates must have positive length.", ex.getMessage());
+		}
+	}
+	
+	@Test(expected=UnsupportedOperationException.class)
+	public void testOffHeapSystemHoldsNoTankObjects() {
+		WaterSystem.Builder builder = new WaterSystem.Builder().offHeap(0);
+		for(Tank t : tanks) {
+			builder.add(t);
+		}
+		builder.build().tanksInRegion(new Region(0, 0, 10, 10));
+	}
+	
+	private static List<Tank> tanksOf(List<Crossing> crossings) {
+		List<Tank> crossed = new ArrayList<Tank>();
+		for(Crossing c : crossings) {
+			crossed.add(c.getTank());
+		}
+		return crossed;
+	}
+}